@@ -0,0 +1,64 @@
+package controllers.gitlab;
+
+import com.google.gson.stream.JsonReader;
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.GitlabClientRegistry;
+import helpers.api.gitlab.hook.GitlabHookHandler;
+import helpers.api.gitlab.json.GitlabHookEventAdapter;
+import helpers.api.gitlab.model.GitlabHookEvent;
+import play.Logger;
+import play.mvc.Controller;
+import play.mvc.Http;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives the Gitlab system hooks, group hooks and project hooks, and updates the cached Gitlab state from their events.
+ * The events are applied asynchronously: Gitlab gets its response immediately.
+ *
+ * @author jtremeaux
+ */
+public class GitlabHooks extends Controller {
+    /**
+     * Receive a hook event.
+     * The X-Gitlab-Token header must match the gitlab.hook.token secret.
+     * The hooks of a named instance are received with ?instance=&lt;name&gt;, and checked against its own secret.
+     *
+     * @param instance The instance name, the default instance if null
+     */
+    public static void receive(String instance) {
+        if (instance != null && !GitlabClientRegistry.isConfigured(instance)) {
+            notFound();
+        }
+        GitlabHookHandler handler = instance == null ? GitlabClient.get().getHookHandler() : GitlabClientRegistry.get(instance).getHookHandler();
+        if (!handler.isEnabled()) {
+            notFound();
+        }
+        Http.Header header = request.headers.get("x-gitlab-token");
+        if (header == null || !isTokenValid(header.value(), handler.getToken())) {
+            forbidden("Invalid Gitlab token");
+        }
+        GitlabHookEvent event = readEvent();
+        if (event == null) {
+            badRequest();
+        }
+        handler.submit(event);
+        ok();
+    }
+
+    private static boolean isTokenValid(String token, String expected) {
+        return token != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static GitlabHookEvent readEvent() {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(request.body, StandardCharsets.UTF_8))) {
+            return GitlabHookEventAdapter.INSTANCE.read(reader);
+        } catch (IOException | RuntimeException e) {
+            Logger.warn("Invalid Gitlab hook payload: " + e.getMessage());
+            return null;
+        }
+    }
+}
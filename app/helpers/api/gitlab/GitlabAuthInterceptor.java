@@ -0,0 +1,122 @@
+package helpers.api.gitlab;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Authenticates the requests with one of the tokens of the client, and throttles them with the rate limit of this token,
+ * so that the requests are spread over the budgets of all the tokens.
+ * The token is chosen for each attempt, either in turn or as the least loaded one (the shortest wait for its rate limit,
+ * then the fewest requests in flight). A request that already has a PRIVATE-TOKEN header keeps it.
+ * The tokens of a client must have the same permissions.
+ *
+ * @author jtremeaux
+ */
+public class GitlabAuthInterceptor implements Interceptor {
+    public static final String HEADER = "PRIVATE-TOKEN";
+
+    public enum Selection {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private final List<GitlabToken> tokens;
+
+    /**
+     * The tokens of the client, and the tokens set by the callers.
+     */
+    private final Map<String, GitlabToken> tokensByValue = new ConcurrentHashMap<>();
+
+    private final Selection selection;
+
+    private final boolean rateLimitEnabled;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public GitlabAuthInterceptor(List<String> tokenValues, Selection selection, boolean rateLimitEnabled) {
+        List<GitlabToken> tokens = new ArrayList<>();
+        for (String value : tokenValues) {
+            GitlabToken token = new GitlabToken(value, new GitlabRateLimiter(rateLimitEnabled));
+            tokens.add(token);
+            tokensByValue.put(value, token);
+        }
+        this.tokens = Collections.unmodifiableList(tokens);
+        this.selection = selection;
+        this.rateLimitEnabled = rateLimitEnabled;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String value = request.header(HEADER);
+        GitlabToken token;
+        if (value != null) {
+            token = tokensByValue.computeIfAbsent(value, v -> new GitlabToken(v, new GitlabRateLimiter(rateLimitEnabled)));
+        } else {
+            token = select();
+            if (token == null) {
+                return chain.proceed(request);
+            }
+            request = request.newBuilder()
+                    .header(HEADER, token.getValue())
+                    .build();
+        }
+        token.start();
+        try {
+            token.getRateLimiter().acquire();
+            Response response = chain.proceed(request);
+            token.getRateLimiter().update(response);
+            return response;
+        } finally {
+            token.end();
+        }
+    }
+
+    private GitlabToken select() {
+        int size = tokens.size();
+        if (size <= 1) {
+            return size == 0 ? null : tokens.get(0);
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        if (selection == Selection.ROUND_ROBIN) {
+            return tokens.get(start);
+        }
+        // Start from a different token each time to break the ties in turn
+        GitlabToken best = null;
+        long bestWait = Long.MAX_VALUE;
+        int bestInFlight = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            GitlabToken token = tokens.get((start + i) % size);
+            long wait = token.getRateLimiter().getCurrentWait();
+            int inFlight = token.getInFlight();
+            if (wait < bestWait || wait == bestWait && inFlight < bestInFlight) {
+                best = token;
+                bestWait = wait;
+                bestInFlight = inFlight;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the tokens of the client.
+     *
+     * @return The tokens
+     */
+    public List<GitlabToken> getTokens() {
+        return tokens;
+    }
+
+    public Selection getSelection() {
+        return selection;
+    }
+}
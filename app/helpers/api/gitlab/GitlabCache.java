@@ -0,0 +1,270 @@
+package helpers.api.gitlab;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of Gitlab lookups.
+ * Each kind of entity is cached in its own region, bounded in size and evicted after a TTL.
+ * Cached values are shared between callers and must not be modified.
+ * A value loaded while its entry is invalidated (e.g. by a write) is not kept: each invalidation bumps a generation
+ * of the key, and a load is only cached if the generation didn't change meanwhile.
+ * The values loaded outside of the cache (e.g. by a batch) are put with the generation read before loading them.
+ *
+ * @author jtremeaux
+ */
+public class GitlabCache {
+    public static final String PROJECT = "project";
+
+    public static final String GROUP = "group";
+
+    public static final String GROUP_MEMBERS = "groupMembers";
+
+    public static final String USER = "user";
+
+    public static final String VARIABLES = "variables";
+
+    private final boolean enabled;
+
+    private final long maxSize;
+
+    private final long ttl;
+
+    /**
+     * Number of generation counters, the keys are spread over them by hash.
+     */
+    private static final int GENERATION_STRIPES = 256;
+
+    private final Map<String, Cache<Object, Object>> regions = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * Constructor.
+     *
+     * @param enabled Caching is enabled, otherwise every lookup is delegated to the loader
+     * @param maxSize Maximum number of entries per region
+     * @param ttl Time to live of the entries, in seconds
+     */
+    public GitlabCache(boolean enabled, long maxSize, long ttl) {
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get a value from the cache, loading it if absent.
+     * Null values are not cached.
+     *
+     * @param region The cache region
+     * @param key The key
+     * @param loader Loads the value
+     * @return The value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String region, Object key, Supplier<T> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Cache<Object, Object> cache = getRegion(region);
+        long generation = getGeneration(region, key);
+        T value;
+        try {
+            // Concurrent callers of the same key wait for a single load
+            value = (T) cache.get(key, loader::get);
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            // The loader returned null
+            return null;
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } catch (ExecutionError e) {
+            throw e.getCause() instanceof Error ? (Error) e.getCause() : e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        if (generation != getGeneration(region, key)) {
+            // Invalidated while loading: the value may predate the write
+            cache.invalidate(key);
+        }
+        return value;
+    }
+
+    /**
+     * Get a value from the cache, loading it asynchronously if absent.
+     * Null values are not cached.
+     *
+     * @param region The cache region
+     * @param key The key
+     * @param loader Loads the value
+     * @return The future value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> getAsync(String region, Object key, Supplier<CompletableFuture<T>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Cache<Object, Object> cache = getRegion(region);
+        T value = (T) cache.getIfPresent(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        long generation = getGeneration(region, key);
+        return loader.get().thenApply(loaded -> {
+            put(region, key, loaded, generation);
+            return loaded;
+        });
+    }
+
+    /**
+     * Put a value in the cache.
+     *
+     * @param region The cache region
+     * @param key The key
+     * @param value The value
+     */
+    public void put(String region, Object key, Object value) {
+        if (enabled && value != null) {
+            getRegion(region).put(key, value);
+        }
+    }
+
+    /**
+     * Put a value loaded outside of the cache, unless its entry was invalidated since the load started.
+     *
+     * @param region The cache region
+     * @param key The key
+     * @param value The value
+     * @param generation The generation of the key before the load, see {@link #getGeneration(String, Object)}
+     */
+    public void put(String region, Object key, Object value, long generation) {
+        if (!enabled || value == null || generation != getGeneration(region, key)) {
+            return;
+        }
+        Cache<Object, Object> cache = getRegion(region);
+        cache.put(key, value);
+        if (generation != getGeneration(region, key)) {
+            // Invalidated while putting: the value may predate the write
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Evict an entry from the cache.
+     *
+     * @param region The cache region
+     * @param key The key
+     */
+    public void invalidate(String region, Object key) {
+        if (enabled) {
+            generations.incrementAndGet(getStripe(region, key));
+            getRegion(region).invalidate(key);
+        }
+    }
+
+    /**
+     * Evict an entry from the cache once a write completes, whether it succeeded or not.
+     *
+     * @param future The write
+     * @param region The cache region
+     * @param key The key
+     * @return The write
+     */
+    public <T> CompletableFuture<T> invalidateOnComplete(CompletableFuture<T> future, String region, Object key) {
+        return future.whenComplete((result, e) -> invalidate(region, key));
+    }
+
+    /**
+     * Evict all the entries of a region.
+     *
+     * @param region The cache region
+     */
+    public void invalidateAll(String region) {
+        if (enabled) {
+            incrementAllGenerations();
+            getRegion(region).invalidateAll();
+        }
+    }
+
+    /**
+     * Evict all the entries.
+     */
+    public void invalidateAll() {
+        incrementAllGenerations();
+        regions.values().forEach(Cache::invalidateAll);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of each region.
+     *
+     * @return The statistics, by region
+     */
+    public Map<String, CacheStats> getStats() {
+        Map<String, CacheStats> stats = new TreeMap<>();
+        regions.forEach((region, cache) -> stats.put(region, cache.stats()));
+        return stats;
+    }
+
+    /**
+     * Returns the generation of a key, to read before loading a value put later.
+     *
+     * @param region The cache region
+     * @param key The key
+     * @return The generation
+     */
+    public long getGeneration(String region, Object key) {
+        return generations.get(getStripe(region, key));
+    }
+
+    /**
+     * Returns the generations of some keys, to read before loading values put later.
+     *
+     * @param region The cache region
+     * @param keys The keys
+     * @return The generations, by key
+     */
+    public <K> Map<K, Long> getGenerations(String region, Collection<K> keys) {
+        Map<K, Long> generations = new HashMap<>();
+        for (K key : keys) {
+            generations.put(key, getGeneration(region, key));
+        }
+        return generations;
+    }
+
+    private static int getStripe(String region, Object key) {
+        return Math.floorMod(Objects.hash(region, key), GENERATION_STRIPES);
+    }
+
+    private void incrementAllGenerations() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+    }
+
+    private Cache<Object, Object> getRegion(String region) {
+        return regions.computeIfAbsent(region, name -> CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .recordStats()
+                .build());
+    }
+}
@@ -0,0 +1,67 @@
+package helpers.api.gitlab;
+
+import com.sismics.sapparot.function.CheckedConsumer;
+import com.sismics.sapparot.function.CheckedFunction;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * A Gitlab API call: the request and its response handlers.
+ * The same call can be executed synchronously or asynchronously.
+ * The request is tagged with the call, so that interceptors can identify the logical operation.
+ *
+ * @author jtremeaux
+ */
+public class GitlabCall<T> {
+    private final String operation;
+
+    private final Request request;
+
+    private final CheckedFunction<Response, T> onSuccess;
+
+    private final CheckedConsumer<Response> onFailure;
+
+    /**
+     * Constructor.
+     *
+     * @param operation The logical operation name (e.g. "project.create")
+     * @param request The request
+     * @param onSuccess Called with a successful response
+     * @param onFailure Called with an unsuccessful response
+     */
+    public GitlabCall(String operation, Request request, CheckedFunction<Response, T> onSuccess, CheckedConsumer<Response> onFailure) {
+        this.operation = operation;
+        this.request = request.newBuilder()
+                .tag(GitlabCall.class, this)
+                .build();
+        this.onSuccess = onSuccess;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Returns the logical operation of a request.
+     *
+     * @param request The request
+     * @return The operation name, or null if the request was not built by a call
+     */
+    public static String getOperation(Request request) {
+        GitlabCall<?> call = request.tag(GitlabCall.class);
+        return call == null ? null : call.getOperation();
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public CheckedFunction<Response, T> getOnSuccess() {
+        return onSuccess;
+    }
+
+    public CheckedConsumer<Response> getOnFailure() {
+        return onFailure;
+    }
+}
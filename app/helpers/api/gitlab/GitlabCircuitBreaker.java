@@ -0,0 +1,180 @@
+package helpers.api.gitlab;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-endpoint circuit breaker.
+ * After a number of consecutive failures (connection errors or 5xx responses) on an endpoint,
+ * the circuit opens and the requests to this endpoint fail immediately for a while.
+ * A single trial request is then let through: the circuit closes if it succeeds, and opens again otherwise.
+ *
+ * @author jtremeaux
+ */
+public class GitlabCircuitBreaker implements Interceptor {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final boolean enabled;
+
+    private final int failureThreshold;
+
+    private final long openDuration;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param enabled The circuit breaker is enabled
+     * @param failureThreshold Number of consecutive failures opening the circuit
+     * @param openDuration Time during which an open circuit rejects requests, in seconds
+     */
+    public GitlabCircuitBreaker(boolean enabled, int failureThreshold, long openDuration) {
+        this.enabled = enabled;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = TimeUnit.SECONDS.toMillis(openDuration);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (!enabled) {
+            return chain.proceed(chain.request());
+        }
+        String endpoint = getEndpoint(chain.request());
+        Circuit circuit = circuits.computeIfAbsent(endpoint, key -> new Circuit());
+        if (!circuit.tryAcquire()) {
+            throw new CircuitOpenException("Gitlab circuit open for endpoint: " + endpoint);
+        }
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                circuit.onCancel();
+            } else {
+                circuit.onFailure();
+            }
+            throw e;
+        }
+        if (response.code() >= 500) {
+            circuit.onFailure();
+        } else {
+            circuit.onSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * Returns the endpoint of a request: its method and path, IDs and variable keys replaced by placeholders.
+     *
+     * @param request The request
+     * @return The endpoint
+     */
+    public static String getEndpoint(Request request) {
+        StringBuilder endpoint = new StringBuilder(request.method()).append(" ");
+        List<String> segments = request.url().pathSegments();
+        String previous = null;
+        for (String segment : segments) {
+            endpoint.append("/");
+            if ("variables".equals(previous)) {
+                endpoint.append(":key");
+            } else if (!segment.isEmpty() && segment.chars().allMatch(Character::isDigit)) {
+                endpoint.append(":id");
+            } else {
+                endpoint.append(segment);
+            }
+            previous = segment;
+        }
+        return endpoint.toString();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the state of each known endpoint.
+     *
+     * @return The states, by endpoint
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new TreeMap<>();
+        circuits.forEach((endpoint, circuit) -> states.put(endpoint, circuit.getState()));
+        return states;
+    }
+
+    private class Circuit {
+        private State state = State.CLOSED;
+
+        private int failures;
+
+        private long openedAt;
+
+        private boolean trialInFlight;
+
+        synchronized boolean tryAcquire() {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+                state = State.HALF_OPEN;
+                trialInFlight = false;
+            }
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    if (trialInFlight) {
+                        return false;
+                    }
+                    trialInFlight = true;
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        synchronized void onSuccess() {
+            state = State.CLOSED;
+            failures = 0;
+            trialInFlight = false;
+        }
+
+        synchronized void onFailure() {
+            failures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN || failures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+
+        synchronized void onCancel() {
+            trialInFlight = false;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+    }
+
+    /**
+     * Thrown when a request is rejected because its circuit is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+}
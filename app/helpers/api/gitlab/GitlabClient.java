@@ -1,15 +1,60 @@
 package helpers.api.gitlab;
 
+import com.google.common.collect.Lists;
 import com.sismics.sapparot.function.CheckedConsumer;
 import com.sismics.sapparot.function.CheckedFunction;
 import com.sismics.sapparot.okhttp.OkHttpHelper;
+import helpers.api.gitlab.hook.GitlabHookHandler;
+import helpers.api.gitlab.index.GitlabIndex;
+import helpers.api.gitlab.metrics.GitlabMetrics;
+import helpers.api.gitlab.queue.GitlabBulkQueue;
 import helpers.api.gitlab.service.GroupGitlabService;
 import helpers.api.gitlab.service.ProjectGitlabService;
+import helpers.api.gitlab.service.TenantGitlabService;
 import helpers.api.gitlab.service.UserGitlabService;
+import helpers.api.gitlab.stub.GitlabFakeServer;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
 import play.Play;
+import play.libs.Time;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.mockito.Mockito.mock;
 
@@ -17,9 +62,30 @@ import static org.mockito.Mockito.mock;
  * @author jtremeaux
  */
 public class GitlabClient {
+    private static final long DOWNLOAD_CHUNK_SIZE = 64 * 1024;
+
+    private final String name;
+
     private OkHttpClient client;
 
-    private static GitlabClient gitlabClient;
+    /**
+     * The base URL of the API, e.g. "https://gitlab.example.com/api/v4/".
+     */
+    private HttpUrl baseUrl;
+
+    private String apiUrl;
+
+    private String graphqlUrl;
+
+    private List<String> tokens;
+
+    private int pageSize;
+
+    private int graphqlBatchSize;
+
+    private int bulkParallelism;
+
+    private Set<String> ignoredMembers;
 
     private ProjectGitlabService projectService;
 
@@ -27,51 +93,384 @@ public class GitlabClient {
 
     private UserGitlabService userService;
 
+    private TenantGitlabService tenantService;
+
+    private GitlabCache cache;
+
+    private GitlabAuthInterceptor authInterceptor;
+
+    private GitlabMetrics metrics;
+
+    private GitlabRetryInterceptor retryInterceptor;
+
+    private GitlabCircuitBreaker circuitBreaker;
+
+    private GitlabSingleFlight singleFlight;
+
+    private GitlabHedging hedging;
+
+    private GitlabHttpCache httpCache;
+
+    private GitlabIndex index;
+
+    private GitlabHookHandler hookHandler;
+
+    private GitlabBulkQueue queue;
+
+    /**
+     * Returns the client of the default instance.
+     *
+     * @return The client
+     */
     public static GitlabClient get() {
-        if (gitlabClient == null) {
-            gitlabClient = new GitlabClient();
-        }
-        return gitlabClient;
+        return GitlabClientRegistry.get(GitlabClientRegistry.DEFAULT);
     }
 
     public GitlabClient() {
+        this(GitlabClientRegistry.DEFAULT);
+    }
+
+    /**
+     * Create the client of a Gitlab instance.
+     * The properties of the instance are read from gitlab.&lt;name&gt;.*, then from gitlab.* (e.g. gitlab.ci.url, then gitlab.url).
+     * The URLs and the settings used by each request are resolved once here.
+     *
+     * @param name The instance name
+     */
+    public GitlabClient(String name) {
+        this.name = name;
+        String serverUrl = isFakeServer() ? GitlabFakeServer.getInstance().getUrl() : getProperty("url", null);
+        if (serverUrl != null) {
+            baseUrl = HttpUrl.get(serverUrl + "/api/v4/");
+            apiUrl = serverUrl + "/api/v4";
+            graphqlUrl = serverUrl + "/api/graphql";
+        }
+        tokens = readTokens();
+        pageSize = Math.max(1, Math.min(getIntProperty("pagination.perPage", 100), 100));
+        graphqlBatchSize = Math.max(1, Math.min(getIntProperty("graphql.batchSize", 100), 100));
+        bulkParallelism = Math.max(1, getIntProperty("bulk.parallelism", 5));
+        ignoredMembers = Collections.unmodifiableSet(Arrays.stream(getProperty("members.ignore", "controlplane").split(","))
+                .map(String::trim)
+                .filter(username -> !username.isEmpty())
+                .collect(Collectors.toSet()));
+        authInterceptor = new GitlabAuthInterceptor(tokens,
+                GitlabAuthInterceptor.Selection.valueOf(getProperty("tokenSelection", "round-robin").toUpperCase().replace('-', '_')),
+                getBooleanProperty("rateLimit.enabled", "true"));
+        metrics = new GitlabMetrics(name);
+        retryInterceptor = new GitlabRetryInterceptor(
+                getIntProperty("retry.maxAttempts", 3),
+                getIntProperty("retry.baseDelay", 200),
+                getIntProperty("retry.maxDelay", 5000),
+                GitlabRetryInterceptor.PostPolicy.valueOf(getProperty("retry.post", "connect").toUpperCase()),
+                metrics);
+        circuitBreaker = new GitlabCircuitBreaker(
+                getBooleanProperty("circuitBreaker.enabled", "true"),
+                getIntProperty("circuitBreaker.failureThreshold", 5),
+                getDurationProperty("circuitBreaker.openDuration", "30s"));
+        httpCache = new GitlabHttpCache(
+                getBooleanProperty("httpCache.enabled", "false"),
+                getFileProperty("httpCache.dir", "gitlab-http-cache"),
+                Long.parseLong(getProperty("httpCache.maxSize", "52428800").trim()),
+                getIntProperty("httpCache.maxResults", 1000));
         client = createClient();
+        hedging = new GitlabHedging(
+                getBooleanProperty("hedge.enabled", "false"),
+                Double.parseDouble(getProperty("hedge.percentile", "95").trim()),
+                getIntProperty("hedge.minDelay", 50),
+                getIntProperty("hedge.minSamples", 100),
+                Double.parseDouble(getProperty("hedge.budget", "0.05").trim()),
+                getIntProperty("hedge.maxConcurrent", 10),
+                metrics);
+        singleFlight = new GitlabSingleFlight(getBooleanProperty("singleFlight.enabled", "true"));
+        cache = new GitlabCache(
+                getBooleanProperty("cache.enabled", "false"),
+                getIntProperty("cache.maxSize", 10000),
+                getDurationProperty("cache.ttl", "30s"));
+        index = new GitlabIndex(
+                getBooleanProperty("index.enabled", "false"),
+                getFileProperty("index.file", "gitlab-index.bin.gz"),
+                getDurationProperty("index.syncInterval", "5mn"),
+                getDurationProperty("index.fullSyncInterval", "1d"));
+        hookHandler = new GitlabHookHandler(this,
+                getProperty("hook.token", null),
+                getBooleanProperty("hook.prime", "true"));
+        queue = new GitlabBulkQueue(this,
+                getBooleanProperty("queue.enabled", "false"),
+                getFileProperty("queue.file", "gitlab-queue.jsonl"),
+                getIntProperty("queue.concurrency", 4),
+                getIntProperty("queue.maxAttempts", 5),
+                TimeUnit.SECONDS.toMillis(getDurationProperty("queue.retryDelay", "10s")),
+                TimeUnit.SECONDS.toMillis(getDurationProperty("queue.maxRetryDelay", "10mn")),
+                getIntProperty("queue.maxPending", 100000));
         if (isMock()) {
             projectService = mock(ProjectGitlabService.class);
             groupService = mock(GroupGitlabService.class);
             userService = mock(UserGitlabService.class);
+            tenantService = mock(TenantGitlabService.class);
         } else {
             projectService = new ProjectGitlabService(this);
             groupService = new GroupGitlabService(this);
             userService = new UserGitlabService(this);
+            tenantService = new TenantGitlabService(this);
         }
     }
 
     private boolean isMock() {
-        return Boolean.parseBoolean(Play.configuration.getProperty("gitlab.mock", "false"));
+        return getBooleanProperty("mock", "false");
     }
 
-    private static OkHttpClient createClient() {
-        return new OkHttpClient.Builder()
-                .build();
+    /**
+     * The services call the in-memory fake server instead of Gitlab with gitlab.mock=server.
+     *
+     * @return True if the fake server is used
+     */
+    private boolean isFakeServer() {
+        return "server".equals(getProperty("mock", null));
+    }
+
+    /**
+     * Returns the tokens of the instance: gitlab.tokens (comma separated), or gitlab.token.
+     *
+     * @return The tokens
+     */
+    private List<String> readTokens() {
+        String value = getProperty("tokens", null);
+        if (value == null) {
+            value = getProperty("token", isFakeServer() ? "fake" : null);
+        }
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns a property of the instance, e.g. gitlab.ci.url for the key "url" of the instance "ci",
+     * falling back to the property of all the instances, e.g. gitlab.url.
+     *
+     * @param key The property key, without the "gitlab." prefix
+     * @param defaultValue The default value
+     * @return The value
+     */
+    private String getProperty(String key, String defaultValue) {
+        String value = null;
+        if (!GitlabClientRegistry.DEFAULT.equals(name)) {
+            value = Play.configuration.getProperty("gitlab." + name + "." + key);
+        }
+        if (value == null) {
+            value = Play.configuration.getProperty("gitlab." + key, defaultValue);
+        }
+        return value;
+    }
+
+    private boolean getBooleanProperty(String key, String defaultValue) {
+        return Boolean.parseBoolean(getProperty(key, defaultValue));
+    }
+
+    /**
+     * Returns a file property, the default file of a named instance is suffixed by its name.
+     *
+     * @param key The property key
+     * @param defaultName The default file name in the tmp directory
+     * @return The file
+     */
+    private File getFileProperty(String key, String defaultName) {
+        String path = getProperty(key, null);
+        if (path != null) {
+            return Play.getFile(path);
+        }
+        if (!GitlabClientRegistry.DEFAULT.equals(name)) {
+            defaultName = defaultName.replaceFirst("^gitlab-", "gitlab-" + name + "-");
+        }
+        return new File(Play.tmpDir != null ? Play.tmpDir : Play.getFile("tmp"), defaultName);
+    }
+
+    private OkHttpClient createClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(getIntProperty("http.maxRequests", 64));
+        dispatcher.setMaxRequestsPerHost(getIntProperty("http.maxRequestsPerHost", 5));
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(
+                        getIntProperty("http.maxIdleConnections", 5),
+                        getDurationProperty("http.keepAlive", "5mn"), TimeUnit.SECONDS))
+                .connectTimeout(getDurationProperty("http.connectTimeout", "10s"), TimeUnit.SECONDS)
+                .readTimeout(getDurationProperty("http.readTimeout", "10s"), TimeUnit.SECONDS)
+                .writeTimeout(getDurationProperty("http.writeTimeout", "10s"), TimeUnit.SECONDS)
+                .callTimeout(getDurationProperty("http.callTimeout", "0s"), TimeUnit.SECONDS)
+                .addInterceptor(metrics)
+                .addInterceptor(circuitBreaker)
+                .addInterceptor(retryInterceptor)
+                .addInterceptor(authInterceptor);
+        if (httpCache.isEnabled()) {
+            builder.cache(httpCache.getCache());
+        }
+        if (!getBooleanProperty("http.http2", "true")) {
+            builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+        }
+        if (!getBooleanProperty("http.compression", "true")) {
+            // OkHttp negotiates gzip transparently unless the request already has an Accept-Encoding header
+            builder.addInterceptor(chain -> chain.proceed(chain.request().newBuilder()
+                    .header("Accept-Encoding", "identity")
+                    .build()));
+        }
+        return builder.build();
+    }
+
+    private int getIntProperty(String key, int defaultValue) {
+        String value = getProperty(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Returns a duration property in seconds (e.g. "30s", "5mn").
+     *
+     * @param key The property key
+     * @param defaultValue The default duration
+     * @return The duration in seconds
+     */
+    private int getDurationProperty(String key, String defaultValue) {
+        return Time.parseDuration(getProperty(key, defaultValue));
+    }
+
+    public String getName() {
+        return name;
     }
 
     public String getGitlabUrl() {
-        return Play.configuration.getProperty("gitlab.url") + "/api/v4";
+        return apiUrl;
+    }
+
+    /**
+     * Returns the base URL of the API, to build the URLs with query parameters.
+     *
+     * @return The base URL, ending with a slash
+     */
+    public HttpUrl getBaseUrl() {
+        return baseUrl;
     }
 
+    /**
+     * Returns the URL of the GraphQL endpoint.
+     *
+     * @return The GraphQL URL
+     */
+    public String getGraphqlUrl() {
+        return graphqlUrl;
+    }
+
+    /**
+     * Returns the first token of the instance.
+     * The requests are authenticated by the client with one of the tokens, see {@link GitlabAuthInterceptor}.
+     *
+     * @return The token
+     */
     public String getGitlabToken() {
-        return Play.configuration.getProperty("gitlab.token");
+        return tokens.isEmpty() ? null : tokens.get(0);
+    }
+
+    /**
+     * Returns the number of elements requested per page in paginated listings (Gitlab allows 100 at most).
+     *
+     * @return The page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the maximum number of IDs fetched by a single GraphQL query (Gitlab returns 100 nodes at most).
+     *
+     * @return The batch size
+     */
+    public int getGraphqlBatchSize() {
+        return graphqlBatchSize;
+    }
+
+    /**
+     * Returns the maximum number of concurrent calls of the bulk operations (e.g. the members sync).
+     *
+     * @return The parallelism
+     */
+    public int getBulkParallelism() {
+        return bulkParallelism;
+    }
+
+    /**
+     * Returns the usernames of the group members ignored by the member listings and sync (e.g. technical users).
+     *
+     * @return The ignored usernames
+     */
+    public Set<String> getIgnoredMembers() {
+        return ignoredMembers;
     }
 
     public String getUrl(String url) {
-        return getGitlabUrl() + url;
+        return apiUrl + url;
     }
 
     public OkHttpClient getClient() {
         return client;
     }
 
+    /**
+     * Returns the rate limiter of the first token.
+     *
+     * @return The rate limiter
+     * @see #getAuthInterceptor()
+     */
+    public GitlabRateLimiter getRateLimiter() {
+        List<GitlabToken> tokens = authInterceptor.getTokens();
+        return tokens.isEmpty() ? null : tokens.get(0).getRateLimiter();
+    }
+
+    public GitlabAuthInterceptor getAuthInterceptor() {
+        return authInterceptor;
+    }
+
+    public GitlabMetrics getMetrics() {
+        return metrics;
+    }
+
+    public GitlabRetryInterceptor getRetryInterceptor() {
+        return retryInterceptor;
+    }
+
+    public GitlabIndex getIndex() {
+        return index;
+    }
+
+    public GitlabBulkQueue getQueue() {
+        return queue;
+    }
+
+    public GitlabHookHandler getHookHandler() {
+        return hookHandler;
+    }
+
+    public GitlabHttpCache getHttpCache() {
+        return httpCache;
+    }
+
+    public GitlabHedging getHedging() {
+        return hedging;
+    }
+
+    public GitlabSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    public GitlabCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public GitlabCache getCache() {
+        return cache;
+    }
+
     public ProjectGitlabService getProjectService() {
         return projectService;
     }
@@ -84,7 +483,530 @@ public class GitlabClient {
         return userService;
     }
 
+    public TenantGitlabService getTenantService() {
+        return tenantService;
+    }
+
+    /**
+     * Execute a request.
+     * A GET request is hedged if enabled: the first attempt runs on the calling thread, the hedge on a hedging thread,
+     * and the calling thread waits for the first successful one.
+     *
+     * @param request The request
+     * @param onSuccess Called with a successful response, returns the result
+     * @param onFailure Called with an unsuccessful response
+     * @return The result
+     */
     public <T> T execute(Request request, CheckedFunction<Response, T> onSuccess, CheckedConsumer<Response> onFailure) {
-        return OkHttpHelper.execute(getClient(), request, onSuccess, onFailure);
+        if (hedging.isHedged(request)) {
+            CheckedFunction<Response, T> onCachedSuccess = httpCache.wrap(request, getCredentials(request), onSuccess);
+            CheckedConsumer<Response> onCodedFailure = withCode(onFailure);
+            return hedging.execute(request, () -> getClient().newCall(request), (call) -> executeCall(call, onCachedSuccess, onCodedFailure));
+        }
+        return executeOnce(request, onSuccess, onFailure);
+    }
+
+    private <T> T executeOnce(Request request, CheckedFunction<Response, T> onSuccess, CheckedConsumer<Response> onFailure) {
+        return OkHttpHelper.execute(getClient(), request, httpCache.wrap(request, getCredentials(request), onSuccess), withCode(onFailure));
+    }
+
+    /**
+     * Execute a call on the calling thread, like {@link OkHttpHelper#execute}, but with a call that can be cancelled.
+     * A synchronous call is not queued by the dispatcher, so its concurrency limits don't apply.
+     */
+    private static <T> T executeCall(Call call, CheckedFunction<Response, T> onSuccess, CheckedConsumer<Response> onFailure) {
+        try (Response response = call.execute()) {
+            T result = null;
+            if (response.isSuccessful()) {
+                if (onSuccess != null) {
+                    result = onSuccess.apply(response);
+                }
+            } else if (onFailure != null) {
+                onFailure.accept(response);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error executing request: " + call.request().url(), e);
+        }
+    }
+
+    /**
+     * Wrap the handler of the unsuccessful responses to keep the status code in the errors it raises.
+     * A plain RuntimeException becomes a GitlabResponseException with the same message, the other errors
+     * (e.g. ValidationException) are unchanged.
+     */
+    private static CheckedConsumer<Response> withCode(CheckedConsumer<Response> onFailure) {
+        if (onFailure == null) {
+            return null;
+        }
+        return (response) -> {
+            try {
+                onFailure.accept(response);
+            } catch (RuntimeException e) {
+                if (e.getClass() != RuntimeException.class) {
+                    throw e;
+                }
+                GitlabResponseException error = new GitlabResponseException(response.code(), e.getMessage(), e.getCause());
+                error.setStackTrace(e.getStackTrace());
+                throw error;
+            }
+        };
+    }
+
+    /**
+     * Execute a call.
+     * Identical GET calls in flight are coalesced: a caller waits for the same call started by another thread.
+     *
+     * @param call The call
+     * @return The result
+     */
+    public <T> T execute(GitlabCall<T> call) {
+        if (isCoalesced(call)) {
+            return singleFlight.execute(getCallKey(call), () -> execute(call.getRequest(), call.getOnSuccess(), call.getOnFailure()));
+        }
+        return execute(call.getRequest(), call.getOnSuccess(), call.getOnFailure());
+    }
+
+    /**
+     * Execute a request without blocking the calling thread.
+     * The request is queued on the OkHttp dispatcher, which enforces the global and per-host concurrency limits.
+     * The handlers are called from a dispatcher thread.
+     * A GET request is hedged if enabled, see {@link GitlabHedging}.
+     *
+     * @param request The request
+     * @param onSuccess Called with a successful response, its result completes the future
+     * @param onFailure Called with an unsuccessful response
+     * @return The future result, cancelling it cancels the HTTP call
+     */
+    public <T> CompletableFuture<T> executeAsync(Request request, CheckedFunction<Response, T> onSuccess, CheckedConsumer<Response> onFailure) {
+        if (hedging.isHedged(request)) {
+            CheckedFunction<Response, T> onCachedSuccess = httpCache.wrap(request, getCredentials(request), onSuccess);
+            CheckedConsumer<Response> onCodedFailure = withCode(onFailure);
+            return hedging.executeAsync(request, () -> executeOnceAsync(request, onSuccess, onFailure),
+                    () -> getClient().newCall(request), (call) -> executeCall(call, onCachedSuccess, onCodedFailure));
+        }
+        return executeOnceAsync(request, onSuccess, onFailure);
+    }
+
+    private <T> CompletableFuture<T> executeOnceAsync(Request request, CheckedFunction<Response, T> onSuccess, CheckedConsumer<Response> onFailure) {
+        CheckedFunction<Response, T> onCachedSuccess = httpCache.wrap(request, getCredentials(request), onSuccess);
+        CheckedConsumer<Response> onCodedFailure = withCode(onFailure);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = getClient().newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new RuntimeException("Error executing request: " + request.url(), e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    T result = null;
+                    if (r.isSuccessful()) {
+                        if (onCachedSuccess != null) {
+                            result = onCachedSuccess.apply(r);
+                        }
+                    } else if (onCodedFailure != null) {
+                        onCodedFailure.accept(r);
+                    }
+                    future.complete(result);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Execute a call without blocking the calling thread.
+     * Identical GET calls in flight are coalesced, and cancelling the future of a GET call doesn't cancel the shared HTTP call.
+     *
+     * @param call The call
+     * @return The future result
+     */
+    public <T> CompletableFuture<T> executeAsync(GitlabCall<T> call) {
+        if (isCoalesced(call)) {
+            return singleFlight.executeAsync(getCallKey(call), () -> executeAsync(call.getRequest(), call.getOnSuccess(), call.getOnFailure()));
+        }
+        return executeAsync(call.getRequest(), call.getOnSuccess(), call.getOnFailure());
+    }
+
+    private boolean isCoalesced(GitlabCall<?> call) {
+        return singleFlight.isEnabled() && "GET".equals(call.getRequest().method());
+    }
+
+    /**
+     * The calls are identical if they are the same operation on the same URL with the same credentials
+     * (the result of the operation is parsed by the same handler).
+     */
+    private String getCallKey(GitlabCall<?> call) {
+        return call.getOperation() + " " + call.getRequest().url() + " " + getCredentials(call.getRequest());
+    }
+
+    /**
+     * Identifies the credentials of a request: the token set by the caller, if any.
+     * Otherwise the authentication interceptor picks one of the tokens of this client for each attempt,
+     * they have the same permissions so they are identified by the client.
+     *
+     * @param request The request
+     * @return The credentials
+     */
+    private String getCredentials(Request request) {
+        String token = request.header(GitlabAuthInterceptor.HEADER);
+        return token != null ? "token:" + token : "client:" + name;
+    }
+
+    /**
+     * Download a response body to a file, without holding it in memory.
+     * The validator of the response (its strong ETag, or its Last-Modified date) is kept next to the file
+     * in &lt;file&gt;.validator until the download completes.
+     * If the file already exists with a validator, the download is resumed from its length with a range request
+     * conditional on the validator (If-Range): the file is downloaded again if the content has changed meanwhile,
+     * or if the server doesn't support ranges. An existing file without a validator is overwritten.
+     * A download interrupted by an I/O error is resumed the same way, up to gitlab.retry.maxAttempts times.
+     *
+     * @param operation The logical operation name
+     * @param request The request
+     * @param file The destination file
+     * @param listener Receives the progress, can be null
+     * @return The file size
+     */
+    public long download(String operation, Request request, File file, GitlabProgressListener listener) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                GitlabCall<Long> call = newDownloadCall(operation, request, file, listener);
+                // Not coalesced nor hedged: the body is written to the caller's file
+                Long size = executeOnce(call.getRequest(), call.getOnSuccess(), call.getOnFailure());
+                return size != null ? size : file.length();
+            } catch (RuntimeException e) {
+                if (attempt >= retryInterceptor.getMaxAttempts() || !isIOException(e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Download a response body to a file without blocking the calling thread.
+     * The body is written from a dispatcher thread.
+     *
+     * @param operation The logical operation name
+     * @param request The request
+     * @param file The destination file
+     * @param listener Receives the progress, can be null
+     * @return The file size
+     * @see #download(String, Request, File, GitlabProgressListener)
+     */
+    public CompletableFuture<Long> downloadAsync(String operation, Request request, File file, GitlabProgressListener listener) {
+        return downloadAsync(operation, request, file, listener, 1);
+    }
+
+    private CompletableFuture<Long> downloadAsync(String operation, Request request, File file, GitlabProgressListener listener, int attempt) {
+        GitlabCall<Long> call = newDownloadCall(operation, request, file, listener);
+        return executeOnceAsync(call.getRequest(), call.getOnSuccess(), call.getOnFailure())
+                .handle((size, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(size != null ? size : file.length());
+                    }
+                    if (attempt >= retryInterceptor.getMaxAttempts() || !isIOException(e)) {
+                        CompletableFuture<Long> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(e);
+                        return failed;
+                    }
+                    return downloadAsync(operation, request, file, listener, attempt + 1);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Download a response body to a stream, without holding it in memory.
+     * The stream is not closed.
+     *
+     * @param operation The logical operation name
+     * @param request The request
+     * @param out The destination stream
+     * @param listener Receives the progress, can be null
+     * @return The number of bytes written
+     */
+    public long download(String operation, Request request, OutputStream out, GitlabProgressListener listener) {
+        GitlabCall<Long> call = new GitlabCall<>(operation, noStore(request),
+                (response) -> {
+                    BufferedSink sink = Okio.buffer(Okio.sink(out));
+                    long size = writeBody(response, sink, 0, response.body().contentLength(), listener);
+                    sink.flush();
+                    return size;
+                },
+                (response) -> {
+                    throw new RuntimeException("Error downloading: " + request.url() + ", response was: " + response.code());
+                });
+        // Not coalesced nor hedged: the body is written to the caller's stream
+        return executeOnce(call.getRequest(), call.getOnSuccess(), call.getOnFailure());
+    }
+
+    private GitlabCall<Long> newDownloadCall(String operation, Request request, File file, GitlabProgressListener listener) {
+        File validatorFile = getValidatorFile(file);
+        long offset = file.length();
+        String validator = offset > 0 ? readValidator(validatorFile) : null;
+        Request rangeRequest = validator != null
+                ? noStore(request).newBuilder()
+                        .header("Range", "bytes=" + offset + "-")
+                        .header("If-Range", validator)
+                        .build()
+                : noStore(request);
+        return new GitlabCall<>(operation, rangeRequest,
+                (response) -> {
+                    boolean resumed = validator != null && response.code() == 206;
+                    if (!resumed) {
+                        writeValidator(validatorFile, response);
+                    }
+                    long contentLength = response.body().contentLength();
+                    long start = resumed ? offset : 0;
+                    long size;
+                    try (BufferedSink sink = Okio.buffer(resumed ? Okio.appendingSink(file) : Okio.sink(file))) {
+                        size = writeBody(response, sink, start, contentLength < 0 ? -1 : start + contentLength, listener);
+                    }
+                    deleteValidator(validatorFile);
+                    return size;
+                },
+                (response) -> {
+                    if (response.code() != 416) {
+                        throw new RuntimeException("Error downloading: " + request.url() + ", response was: " + response.code());
+                    }
+                    // The validator matched and the requested range starts at the end of the file: it is already complete
+                    if (("bytes */" + offset).equals(response.header("Content-Range"))) {
+                        deleteValidator(validatorFile);
+                        return;
+                    }
+                    // The file doesn't match the content: download it again
+                    deleteValidator(validatorFile);
+                    Files.deleteIfExists(file.toPath());
+                    throw new IOException("Invalid partial download: " + file + ", downloading again");
+                });
+    }
+
+    private static File getValidatorFile(File file) {
+        return new File(file.getPath() + ".validator");
+    }
+
+    /**
+     * Returns the validator of a partial download, or null if there is none (the download starts over).
+     */
+    private static String readValidator(File validatorFile) {
+        if (!validatorFile.exists()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keep the validator of the response to resume the download, only if it identifies the content exactly:
+     * a strong ETag, or else the Last-Modified date.
+     */
+    private static void writeValidator(File validatorFile, Response response) throws IOException {
+        String etag = response.header("ETag");
+        String validator = etag != null && !etag.startsWith("W/") ? etag : response.header("Last-Modified");
+        if (validator == null) {
+            deleteValidator(validatorFile);
+        } else {
+            Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void deleteValidator(File validatorFile) throws IOException {
+        Files.deleteIfExists(validatorFile.toPath());
+    }
+
+    /**
+     * The downloads are not kept in the HTTP cache.
+     */
+    private static Request noStore(Request request) {
+        return request.newBuilder()
+                .cacheControl(new CacheControl.Builder().noStore().build())
+                .build();
+    }
+
+    /**
+     * Move the body to the sink segment by segment, the bytes are never copied to an intermediate array.
+     */
+    private static long writeBody(Response response, BufferedSink sink, long start, long totalBytes, GitlabProgressListener listener) throws IOException {
+        BufferedSource source = response.body().source();
+        long written = start;
+        long read;
+        while ((read = source.read(sink.buffer(), DOWNLOAD_CHUNK_SIZE)) != -1) {
+            sink.emitCompleteSegments();
+            written += read;
+            if (listener != null) {
+                listener.onProgress(written, totalBytes);
+            }
+        }
+        sink.emit();
+        return written;
+    }
+
+    /**
+     * Returns true if a download failed on an I/O error, and can be resumed at once.
+     * An open circuit is not: it would fail again until the circuit closes.
+     */
+    private static boolean isIOException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof GitlabCircuitBreaker.CircuitOpenException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stream all the elements of a paginated listing, following the pagination headers.
+     * The stream must be closed if it is not fully consumed.
+     *
+     * @param request The request of the first page
+     * @param onPage Extracts the elements of a page
+     * @param onFailure Called if a page cannot be fetched
+     * @return The elements
+     */
+    public <T> Stream<T> stream(Request request, CheckedFunction<Response, List<T>> onPage, CheckedConsumer<Response> onFailure) {
+        GitlabPageIterator<T> iterator = new GitlabPageIterator<>(this, request, onPage, onFailure);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    public <T> Stream<T> stream(GitlabCall<List<T>> call) {
+        return stream(call.getRequest(), call.getOnSuccess(), call.getOnFailure());
+    }
+
+    /**
+     * Collect all the elements of a paginated listing without blocking the calling thread.
+     *
+     * @param call The call of the first page
+     * @return The future elements
+     */
+    public <T> CompletableFuture<List<T>> collectAsync(GitlabCall<List<T>> call) {
+        Request request = GitlabPageIterator.withPageSize(call.getRequest(), getPageSize());
+        return collectAsync(request, call, new ArrayList<>());
+    }
+
+    private <T> CompletableFuture<List<T>> collectAsync(Request request, GitlabCall<List<T>> call, List<T> elements) {
+        return GitlabPageIterator.fetchPageAsync(this, request, call.getOnSuccess(), call.getOnFailure())
+                .thenCompose(page -> {
+                    if (page == null) {
+                        return CompletableFuture.completedFuture(elements);
+                    }
+                    elements.addAll(page.elements);
+                    if (page.nextRequest == null) {
+                        return CompletableFuture.completedFuture(elements);
+                    }
+                    return collectAsync(page.nextRequest, call, elements);
+                });
+    }
+
+    /**
+     * Fetch entities by ID in batches: the IDs are split into chunks of gitlab.graphql.batchSize,
+     * each chunk being fetched by one call.
+     *
+     * @param ids The IDs
+     * @param batchCall Builds the call fetching a chunk of IDs
+     * @return The entities found, by ID
+     */
+    public <T> Map<Integer, T> fetchByIds(Collection<Integer> ids, Function<List<Integer>, GitlabCall<Map<Integer, T>>> batchCall) {
+        try {
+            return fetchByIdsAsync(ids, batchCall).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Fetch entities by ID in batches without blocking the calling thread.
+     * At most gitlab.bulk.parallelism batches are fetched at once.
+     *
+     * @param ids The IDs
+     * @param batchCall Builds the call fetching a chunk of IDs
+     * @return The entities found, by ID
+     */
+    public <T> CompletableFuture<Map<Integer, T>> fetchByIdsAsync(Collection<Integer> ids, Function<List<Integer>, GitlabCall<Map<Integer, T>>> batchCall) {
+        List<List<Integer>> batches = Lists.partition(new ArrayList<>(new LinkedHashSet<>(ids)), getGraphqlBatchSize());
+        Map<Integer, T> entities = new ConcurrentHashMap<>();
+        return forEachAsync(batches, getBulkParallelism(), batch -> executeAsync(batchCall.apply(batch))
+                .thenAccept(entities::putAll))
+                .thenApply(v -> entities);
+    }
+
+    /**
+     * Apply an asynchronous action on each item, with at most parallelism actions running at once.
+     * The items are consumed by parallelism lanes, each lane starting the next action when the previous one completes.
+     * A failed action doesn't stop the others.
+     *
+     * @param items The items
+     * @param parallelism The maximum number of concurrent actions
+     * @param action The action
+     * @return Completes when all the actions are completed, exceptionally if an action failed
+     */
+    public <T> CompletableFuture<Void> forEachAsync(Collection<T> items, int parallelism, Function<T, CompletableFuture<?>> action) {
+        Queue<T> queue = new ConcurrentLinkedQueue<>(items);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, items.size()); i++) {
+            CompletableFuture<Void> lane = new CompletableFuture<>();
+            runLane(queue, action, error, lane);
+            lanes.add(lane);
+        }
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> {
+                    Throwable e = error.get();
+                    if (e != null) {
+                        throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Run the actions of a lane until the queue is empty.
+     * The actions already completed (e.g. cache hits) are followed in a loop on the same thread,
+     * the lane only resumes from a callback when an action is still running, so the stack doesn't grow with the items.
+     */
+    private <T> void runLane(Queue<T> queue, Function<T, CompletableFuture<?>> action, AtomicReference<Throwable> error, CompletableFuture<Void> lane) {
+        T item;
+        while ((item = queue.poll()) != null) {
+            CompletableFuture<?> future;
+            try {
+                future = action.apply(item);
+            } catch (RuntimeException e) {
+                error.compareAndSet(null, e);
+                continue;
+            }
+            if (!future.isDone()) {
+                future.whenComplete((result, e) -> {
+                    recordError(error, e);
+                    runLane(queue, action, error, lane);
+                });
+                return;
+            }
+            future.whenComplete((result, e) -> recordError(error, e));
+        }
+        lane.complete(null);
+    }
+
+    private static void recordError(AtomicReference<Throwable> error, Throwable e) {
+        if (e != null) {
+            error.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        }
     }
 }
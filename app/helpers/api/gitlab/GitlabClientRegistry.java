@@ -0,0 +1,69 @@
+package helpers.api.gitlab;
+
+import play.Play;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The clients of the Gitlab instances, by name.
+ * The default instance is configured with gitlab.*, the other instances are listed in gitlab.instances
+ * and configured with gitlab.&lt;name&gt;.*.
+ * Each client has its own connection pool, rate limits, circuit breaker and caches.
+ *
+ * @author jtremeaux
+ */
+public class GitlabClientRegistry {
+    public static final String DEFAULT = "default";
+
+    private static final Map<String, GitlabClient> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the client of an instance, created on first use.
+     *
+     * @param name The instance name
+     * @return The client
+     */
+    public static GitlabClient get(String name) {
+        return clients.computeIfAbsent(name, GitlabClient::new);
+    }
+
+    /**
+     * Returns the names of the configured instances, the default instance first.
+     *
+     * @return The instance names
+     */
+    public static List<String> getNames() {
+        List<String> names = new ArrayList<>();
+        names.add(DEFAULT);
+        Arrays.stream(Play.configuration.getProperty("gitlab.instances", "").split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty() && !names.contains(name))
+                .forEach(names::add);
+        return names;
+    }
+
+    /**
+     * Returns true if the instance is configured.
+     *
+     * @param name The instance name
+     * @return True if configured
+     */
+    public static boolean isConfigured(String name) {
+        return getNames().contains(name);
+    }
+
+    /**
+     * Returns the clients created so far.
+     *
+     * @return The clients
+     */
+    public static Collection<GitlabClient> getClients() {
+        return Collections.unmodifiableCollection(clients.values());
+    }
+}
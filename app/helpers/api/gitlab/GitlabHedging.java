@@ -0,0 +1,322 @@
+package helpers.api.gitlab;
+
+import helpers.api.gitlab.metrics.GitlabHistogram;
+import helpers.api.gitlab.metrics.GitlabMetrics;
+import okhttp3.Call;
+import okhttp3.Request;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Hedges the GET requests: if a request is still running after the configured percentile of the latency of its operation,
+ * an identical request is sent, the first successful response is used and the other request is cancelled.
+ * The hedges are limited by a budget: each request earns a fraction of a hedge, and a hedge is sent only if a whole one is available.
+ * The delay is not known until the operation has enough latency samples, until then its requests are not hedged.
+ * The hedges are synchronous calls run by a bounded pool of hedging threads: they are not queued by the OkHttp dispatcher
+ * behind the slow requests they bypass, and its per-host limit (gitlab.http.maxRequestsPerHost) doesn't apply to them.
+ * A hedge is not sent if all the hedging threads are busy.
+ *
+ * @author jtremeaux
+ */
+public class GitlabHedging {
+    /**
+     * Maximum number of hedges saved by the budget, sent at once after a quiet period.
+     */
+    private static final double MAX_CREDITS = 10;
+
+    private final boolean enabled;
+
+    private final double percentile;
+
+    private final long minDelay;
+
+    private final int minSamples;
+
+    private final double budget;
+
+    private final GitlabMetrics metrics;
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService executor;
+
+    private double credits;
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    private final AtomicLong winCount = new AtomicLong();
+
+    private final AtomicLong budgetExceededCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param enabled Hedging enabled
+     * @param percentile The latency percentile of the operation after which a request is hedged (e.g. 95)
+     * @param minDelay The minimum delay before hedging a request, in milliseconds
+     * @param minSamples The number of latency samples of the operation needed to hedge its requests
+     * @param budget The maximum number of hedges per request (e.g. 0.05)
+     * @param maxConcurrent The maximum number of hedges in flight
+     * @param metrics The latency metrics
+     */
+    public GitlabHedging(boolean enabled, double percentile, long minDelay, int minSamples, double budget, int maxConcurrent, GitlabMetrics metrics) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.minSamples = minSamples;
+        this.budget = budget;
+        this.metrics = metrics;
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "gitlab-hedging");
+                thread.setDaemon(true);
+                return thread;
+            });
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(0, maxConcurrent, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "gitlab-hedge-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Returns true if the request can be hedged: only the idempotent reads are.
+     *
+     * @param request The request
+     * @return True if hedged
+     */
+    public boolean isHedged(Request request) {
+        return enabled && "GET".equals(request.method());
+    }
+
+    /**
+     * Execute a request on the calling thread, and an identical one on a hedging thread if the first is slow.
+     * Returns the result of the first successful attempt, or throws the error of the last one.
+     *
+     * @param request The request
+     * @param newCall Creates the call of an attempt
+     * @param attempt Executes the call of an attempt, and returns its result
+     * @return The result
+     */
+    public <T> T execute(Request request, Supplier<Call> newCall, Function<Call, T> attempt) {
+        requestCount.incrementAndGet();
+        addCredits();
+        long delay = getDelay(request);
+        Call call = newCall.get();
+        if (delay < 0) {
+            return attempt.apply(call);
+        }
+        Hedge<T> hedge = new Hedge<>(newCall, attempt, call::cancel);
+        hedge.schedule(delay);
+        try {
+            hedge.result.complete(attempt.apply(call));
+        } catch (RuntimeException e) {
+            hedge.end(e);
+        }
+        try {
+            return hedge.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Execute a request without blocking the calling thread, and an identical one on a hedging thread if the first is slow.
+     * The future is completed by the first successful attempt, or by the error of the last one.
+     * Cancelling the future cancels both attempts.
+     *
+     * @param request The request
+     * @param primary Starts the first attempt
+     * @param newCall Creates the call of the hedge
+     * @param attempt Executes the call of the hedge, and returns its result
+     * @return The future result
+     */
+    public <T> CompletableFuture<T> executeAsync(Request request, Supplier<CompletableFuture<T>> primary,
+                                                 Supplier<Call> newCall, Function<Call, T> attempt) {
+        requestCount.incrementAndGet();
+        addCredits();
+        long delay = getDelay(request);
+        CompletableFuture<T> first = primary.get();
+        if (delay < 0) {
+            return first;
+        }
+        Hedge<T> hedge = new Hedge<>(newCall, attempt, () -> first.cancel(true));
+        hedge.schedule(delay);
+        first.whenComplete((value, e) -> {
+            if (e == null) {
+                hedge.result.complete(value);
+            } else {
+                hedge.end(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return hedge.result;
+    }
+
+    /**
+     * A hedged request: its result, and its attempts in flight.
+     */
+    private class Hedge<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private final Supplier<Call> newCall;
+
+        private final Function<Call, T> attempt;
+
+        private final Runnable cancelPrimary;
+
+        /**
+         * The attempts in flight, the result fails when the last one fails.
+         */
+        private final AtomicInteger running = new AtomicInteger(1);
+
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        private volatile Call call;
+
+        Hedge(Supplier<Call> newCall, Function<Call, T> attempt, Runnable cancelPrimary) {
+            this.newCall = newCall;
+            this.attempt = attempt;
+            this.cancelPrimary = cancelPrimary;
+        }
+
+        void schedule(long delay) {
+            ScheduledFuture<?> timer = scheduler.schedule(this::start, delay, TimeUnit.MILLISECONDS);
+            // The losing attempt, or both if the caller cancelled, is not needed anymore
+            result.whenComplete((value, e) -> {
+                timer.cancel(false);
+                cancelPrimary.run();
+                Call second = call;
+                if (second != null) {
+                    second.cancel();
+                }
+            });
+        }
+
+        private void start() {
+            if (result.isDone()) {
+                return;
+            }
+            if (!tryAcquire()) {
+                budgetExceededCount.incrementAndGet();
+                return;
+            }
+            Call second = newCall.get();
+            running.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (result.complete(attempt.apply(second))) {
+                            winCount.incrementAndGet();
+                        }
+                    } catch (RuntimeException e) {
+                        end(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // All the hedging threads are busy
+                rejectedCount.incrementAndGet();
+                end(null);
+                return;
+            }
+            hedgeCount.incrementAndGet();
+            call = second;
+            if (result.isDone()) {
+                second.cancel();
+            }
+        }
+
+        /**
+         * End an attempt.
+         *
+         * @param e The error of the attempt, null if it was not started
+         */
+        void end(Throwable e) {
+            if (e != null) {
+                error.set(e);
+            }
+            if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(error.get());
+            }
+        }
+    }
+
+    /**
+     * Returns the delay before hedging a request.
+     *
+     * @param request The request
+     * @return The delay in milliseconds, or -1 if the latency of the operation is not known yet
+     */
+    private long getDelay(Request request) {
+        GitlabHistogram latency = metrics.getOperationMetrics(request).getLatency();
+        if (latency.getCount() < minSamples) {
+            return -1;
+        }
+        return Math.max(minDelay, TimeUnit.MICROSECONDS.toMillis(latency.getPercentile(percentile)));
+    }
+
+    private synchronized void addCredits() {
+        credits = Math.min(MAX_CREDITS, credits + budget);
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (credits < 1) {
+            return false;
+        }
+        credits--;
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of hedges answered before the request they hedged.
+     *
+     * @return The number of wins
+     */
+    public long getWinCount() {
+        return winCount.get();
+    }
+
+    public long getBudgetExceededCount() {
+        return budgetExceededCount.get();
+    }
+
+    /**
+     * Returns the number of hedges not sent because all the hedging threads were busy.
+     *
+     * @return The number of rejected hedges
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
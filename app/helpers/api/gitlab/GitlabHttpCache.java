@@ -0,0 +1,159 @@
+package helpers.api.gitlab;
+
+import com.google.common.cache.CacheBuilder;
+import com.sismics.sapparot.function.CheckedFunction;
+import okhttp3.Cache;
+import okhttp3.Request;
+import okhttp3.Response;
+import play.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk HTTP cache of the Gitlab responses.
+ * Gitlab returns an ETag with its GET responses and asks to revalidate them each time (max-age=0, must-revalidate):
+ * OkHttp sends the cached ETag in If-None-Match, and Gitlab answers 304 Not Modified without a body if nothing changed.
+ * The revalidation is authorized with the token chosen for the request.
+ * The parsed result of a cached response is also kept in memory, and reused as is while its ETag doesn't change:
+ * the results must not be modified by the callers.
+ *
+ * @author jtremeaux
+ */
+public class GitlabHttpCache {
+    private final Cache cache;
+
+    /**
+     * The parsed results, by operation, URL and credentials.
+     */
+    private final com.google.common.cache.Cache<String, ParsedResult> results;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong revalidatedCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong reusedCount = new AtomicLong();
+
+    public GitlabHttpCache(boolean enabled, File directory, long maxSize, int maxResults) {
+        this.cache = enabled ? new Cache(directory, maxSize) : null;
+        this.results = CacheBuilder.newBuilder()
+                .maximumSize(maxResults)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the OkHttp cache.
+     *
+     * @return The cache, null if disabled
+     */
+    Cache getCache() {
+        return cache;
+    }
+
+    /**
+     * Wrap the handler of the successful responses of a request to count the cache hits,
+     * and to reuse the result of the previous call if the response was not modified.
+     *
+     * The result is only reused for the same operation (see {@link GitlabCall}), on the same URL with the same credentials.
+     *
+     * @param request The request
+     * @param credentials Identifies the credentials of the request
+     * @param onSuccess Parses a successful response
+     * @return The wrapped handler
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CheckedFunction<Response, T> wrap(Request request, String credentials, CheckedFunction<Response, T> onSuccess) {
+        if (cache == null || onSuccess == null || !"GET".equals(request.method()) || request.cacheControl().noStore()) {
+            return onSuccess;
+        }
+        String operation = GitlabCall.getOperation(request);
+        String key = operation == null ? null : operation + " " + request.url() + " " + credentials;
+        return (response) -> {
+            boolean notModified = response.cacheResponse() != null
+                    && (response.networkResponse() == null || response.networkResponse().code() == 304);
+            if (response.cacheResponse() == null) {
+                missCount.incrementAndGet();
+            } else if (response.networkResponse() == null) {
+                hitCount.incrementAndGet();
+            } else if (notModified) {
+                revalidatedCount.incrementAndGet();
+            } else {
+                missCount.incrementAndGet();
+            }
+            String validator = getValidator(response);
+            if (validator == null || key == null) {
+                return onSuccess.apply(response);
+            }
+            if (notModified) {
+                ParsedResult result = results.getIfPresent(key);
+                if (result != null && result.validator.equals(validator)) {
+                    reusedCount.incrementAndGet();
+                    return (T) result.value;
+                }
+            }
+            T value = onSuccess.apply(response);
+            if (value != null) {
+                results.put(key, new ParsedResult(validator, value));
+            } else {
+                results.invalidate(key);
+            }
+            return value;
+        };
+    }
+
+    private static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        return etag != null ? etag : response.header("Last-Modified");
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    /**
+     * Returns the size of the cached responses on disk.
+     *
+     * @return The size in bytes, -1 if unknown
+     */
+    public long getSize() {
+        if (cache == null) {
+            return 0;
+        }
+        try {
+            return cache.size();
+        } catch (IOException e) {
+            Logger.warn("Cannot get the size of the Gitlab HTTP cache: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static class ParsedResult {
+        private final String validator;
+
+        private final Object value;
+
+        ParsedResult(String validator, Object value) {
+            this.validator = validator;
+            this.value = value;
+        }
+    }
+}
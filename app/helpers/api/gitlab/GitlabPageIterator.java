@@ -0,0 +1,175 @@
+package helpers.api.gitlab;
+
+import com.sismics.sapparot.function.CheckedConsumer;
+import com.sismics.sapparot.function.CheckedFunction;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Iterates over all the elements of a paginated Gitlab listing.
+ * The next page is fetched in the background while the current page is consumed.
+ * Both offset (X-Next-Page header) and keyset (Link header) pagination are followed.
+ *
+ * @author jtremeaux
+ */
+public class GitlabPageIterator<T> implements Iterator<T>, AutoCloseable {
+    private static final Pattern LINK_NEXT_PATTERN = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"next\"");
+
+    private final GitlabClient gitlabClient;
+
+    private final CheckedFunction<Response, List<T>> onPage;
+
+    private final CheckedConsumer<Response> onFailure;
+
+    /**
+     * Request of the first page, null once it has been sent.
+     */
+    private Request firstRequest;
+
+    /**
+     * Elements of the current page.
+     */
+    private Iterator<T> current = Collections.emptyIterator();
+
+    /**
+     * Next page being fetched, null if this is the last page.
+     */
+    private Future<Page<T>> nextPage;
+
+    private boolean closed;
+
+    public GitlabPageIterator(GitlabClient gitlabClient, Request request, CheckedFunction<Response, List<T>> onPage, CheckedConsumer<Response> onFailure) {
+        this.gitlabClient = gitlabClient;
+        this.onPage = onPage;
+        this.onFailure = onFailure;
+        this.firstRequest = withPageSize(request, gitlabClient.getPageSize());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (firstRequest != null) {
+            Request request = firstRequest;
+            firstRequest = null;
+            setPage(fetchPage(request));
+        }
+        while (!current.hasNext() && nextPage != null && !closed) {
+            setPage(awaitPage(nextPage));
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+    }
+
+    private void setPage(Page<T> page) {
+        nextPage = null;
+        if (page == null) {
+            current = Collections.emptyIterator();
+            return;
+        }
+        current = page.elements.iterator();
+        if (page.nextRequest != null && !closed) {
+            nextPage = fetchPageAsync(gitlabClient, page.nextRequest, onPage, onFailure);
+        }
+    }
+
+    private Page<T> fetchPage(Request request) {
+        return gitlabClient.execute(request,
+                (response) -> new Page<>(onPage.apply(response), getNextRequest(request, response)),
+                onFailure);
+    }
+
+    static <T> CompletableFuture<Page<T>> fetchPageAsync(GitlabClient gitlabClient, Request request, CheckedFunction<Response, List<T>> onPage, CheckedConsumer<Response> onFailure) {
+        return gitlabClient.executeAsync(request,
+                (response) -> new Page<>(onPage.apply(response), getNextRequest(request, response)),
+                onFailure);
+    }
+
+    private Page<T> awaitPage(Future<Page<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while fetching the next page", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Build the request of the next page from the pagination headers.
+     *
+     * @param request The request of the current page
+     * @param response The response of the current page
+     * @return The request of the next page, or null if this is the last page
+     */
+    static Request getNextRequest(Request request, Response response) {
+        String link = response.header("Link");
+        if (link != null) {
+            Matcher matcher = LINK_NEXT_PATTERN.matcher(link);
+            if (matcher.find()) {
+                HttpUrl url = HttpUrl.parse(matcher.group(1));
+                if (url != null) {
+                    return request.newBuilder().url(url).build();
+                }
+            }
+        }
+        String nextPage = response.header("X-Next-Page");
+        if (nextPage != null && !nextPage.isEmpty()) {
+            HttpUrl url = request.url().newBuilder()
+                    .setQueryParameter("page", nextPage)
+                    .build();
+            return request.newBuilder().url(url).build();
+        }
+        return null;
+    }
+
+    static Request withPageSize(Request request, int pageSize) {
+        if (request.url().queryParameter("per_page") != null) {
+            return request;
+        }
+        HttpUrl url = request.url().newBuilder()
+                .addQueryParameter("per_page", Integer.toString(pageSize))
+                .build();
+        return request.newBuilder().url(url).build();
+    }
+
+    static class Page<T> {
+        final List<T> elements;
+
+        final Request nextRequest;
+
+        Page(List<T> elements, Request nextRequest) {
+            this.elements = elements;
+            this.nextRequest = nextRequest;
+        }
+    }
+}
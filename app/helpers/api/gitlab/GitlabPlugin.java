@@ -0,0 +1,302 @@
+package helpers.api.gitlab;
+
+import com.google.common.cache.CacheStats;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import helpers.api.gitlab.hook.GitlabHookHandler;
+import helpers.api.gitlab.index.GitlabIndex;
+import helpers.api.gitlab.index.GitlabIndexJob;
+import helpers.api.gitlab.metrics.GitlabMetricsExporter;
+import helpers.api.gitlab.metrics.GitlabMetricsJob;
+import helpers.api.gitlab.metrics.GitlabOperationSnapshot;
+import helpers.api.gitlab.queue.GitlabBulkJob;
+import helpers.api.gitlab.queue.GitlabBulkJobStatus;
+import helpers.api.gitlab.queue.GitlabBulkQueue;
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.libs.Time;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Gitlab plugin: exposes the Gitlab client metrics in the Play status, schedules the index sync and the metrics exporter,
+ * and runs the bulk queue, for each configured Gitlab instance.
+ *
+ * @author jtremeaux
+ */
+public class GitlabPlugin extends PlayPlugin {
+    @Override
+    public void onApplicationStart() {
+        for (String name : GitlabClientRegistry.getNames()) {
+            GitlabClient gitlabClient = GitlabClientRegistry.get(name);
+            startIndex(gitlabClient);
+            startQueue(gitlabClient);
+        }
+        startMetricsExporter();
+    }
+
+    @Override
+    public void onApplicationStop() {
+        for (GitlabClient gitlabClient : GitlabClientRegistry.getClients()) {
+            gitlabClient.getQueue().stop();
+        }
+    }
+
+    private void startQueue(GitlabClient gitlabClient) {
+        GitlabBulkQueue queue = gitlabClient.getQueue();
+        if (!queue.isEnabled()) {
+            return;
+        }
+        queue.load();
+        queue.start();
+    }
+
+    private void startIndex(GitlabClient gitlabClient) {
+        GitlabIndex index = gitlabClient.getIndex();
+        if (!index.isEnabled()) {
+            return;
+        }
+        index.load();
+        new GitlabIndexJob(gitlabClient).now();
+        new GitlabIndexJob(gitlabClient).every(index.getSyncInterval());
+    }
+
+    private void startMetricsExporter() {
+        String exporterClass = Play.configuration.getProperty("gitlab.metrics.exporter");
+        if (exporterClass == null || exporterClass.trim().isEmpty()) {
+            return;
+        }
+        try {
+            GitlabMetricsExporter exporter = (GitlabMetricsExporter) Play.classloader.loadClass(exporterClass.trim()).getDeclaredConstructor().newInstance();
+            new GitlabMetricsJob(exporter).every(Time.parseDuration(Play.configuration.getProperty("gitlab.metrics.exportInterval", "1mn")));
+        } catch (ReflectiveOperationException e) {
+            Logger.error(e, "Cannot create the Gitlab metrics exporter: " + exporterClass);
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        StringWriter sw = new StringWriter();
+        PrintWriter out = new PrintWriter(sw);
+        for (String name : GitlabClientRegistry.getNames()) {
+            String title = GitlabClientRegistry.DEFAULT.equals(name) ? "Gitlab:" : "Gitlab (" + name + "):";
+            out.println(title);
+            out.println(title.replaceAll(".", "~"));
+            printStatus(out, GitlabClientRegistry.get(name));
+            out.println();
+        }
+        return sw.toString();
+    }
+
+    private void printStatus(PrintWriter out, GitlabClient gitlabClient) {
+        out.println(String.format("%-30s %10s %8s %8s %12s %8s %10s %10s %10s", "Operation", "Requests", "Errors", "Retries", "Bytes", "InFlight", "p50 (ms)", "p95 (ms)", "p99 (ms)"));
+        for (GitlabOperationSnapshot snapshot : gitlabClient.getMetrics().getSnapshots()) {
+            out.println(String.format("%-30s %10d %8d %8d %12d %8d %10.1f %10.1f %10.1f",
+                    snapshot.operation, snapshot.requests, snapshot.errors, snapshot.retries, snapshot.bytes, snapshot.inFlight,
+                    snapshot.p50 / 1000.0, snapshot.p95 / 1000.0, snapshot.p99 / 1000.0));
+        }
+        out.println();
+        for (GitlabToken token : gitlabClient.getAuthInterceptor().getTokens()) {
+            GitlabRateLimiter rateLimiter = token.getRateLimiter();
+            out.println("Rate limit " + token.getLabel() + ": remaining=" + rateLimiter.getRemaining()
+                    + ", rate=" + String.format("%.2f", rateLimiter.getRate()) + "/s"
+                    + ", current wait=" + rateLimiter.getCurrentWait() + "ms"
+                    + ", waits=" + rateLimiter.getWaitCount()
+                    + ", wait time=" + rateLimiter.getWaitTime() + "ms"
+                    + ", 429=" + rateLimiter.getTooManyRequestsCount()
+                    + ", requests=" + token.getRequestCount()
+                    + ", in flight=" + token.getInFlight());
+        }
+        out.println("Circuits: " + gitlabClient.getCircuitBreaker().getStates());
+        GitlabSingleFlight singleFlight = gitlabClient.getSingleFlight();
+        out.println("Coalesced calls: calls=" + singleFlight.getCallCount()
+                + ", coalesced=" + singleFlight.getCoalescedCount()
+                + ", in flight=" + singleFlight.getInFlightCount());
+        GitlabHedging hedging = gitlabClient.getHedging();
+        if (hedging.isEnabled()) {
+            out.println("Hedged requests: requests=" + hedging.getRequestCount()
+                    + ", hedges=" + hedging.getHedgeCount()
+                    + ", wins=" + hedging.getWinCount()
+                    + ", over budget=" + hedging.getBudgetExceededCount()
+                    + ", rejected=" + hedging.getRejectedCount());
+        }
+        GitlabHttpCache httpCache = gitlabClient.getHttpCache();
+        if (httpCache.isEnabled()) {
+            out.println("HTTP cache: hits=" + httpCache.getHitCount()
+                    + ", revalidated=" + httpCache.getRevalidatedCount()
+                    + ", misses=" + httpCache.getMissCount()
+                    + ", parsed results reused=" + httpCache.getReusedCount()
+                    + ", size=" + httpCache.getSize() + " bytes");
+        }
+        GitlabHookHandler hookHandler = gitlabClient.getHookHandler();
+        if (hookHandler.isEnabled()) {
+            out.println("Hooks: received=" + hookHandler.getReceivedCount()
+                    + ", applied=" + hookHandler.getAppliedCount()
+                    + ", ignored=" + hookHandler.getIgnoredCount()
+                    + ", errors=" + hookHandler.getErrorCount());
+        }
+        GitlabBulkQueue queue = gitlabClient.getQueue();
+        if (queue.isEnabled()) {
+            out.println("Bulk queue: pending=" + queue.getPendingCount() + ", running=" + queue.getRunningCount() + "/" + queue.getConcurrency());
+            for (GitlabBulkJob job : queue.getJobs()) {
+                GitlabBulkJobStatus jobStatus = job.getStatus();
+                out.println(String.format("  %s: %d/%d done, %d failed, %d retries, %.1f/s, eta=%ss",
+                        jobStatus.id, jobStatus.done, jobStatus.total, jobStatus.failed, jobStatus.retries, jobStatus.itemsPerSecond,
+                        jobStatus.etaSeconds < 0 ? "?" : String.valueOf(jobStatus.etaSeconds)));
+            }
+        }
+        GitlabIndex index = gitlabClient.getIndex();
+        if (index.isEnabled()) {
+            out.println("Index: ready=" + index.isReady()
+                    + ", users=" + index.getUserCount()
+                    + ", groups=" + index.getGroupCount()
+                    + ", projects=" + index.getProjectCount()
+                    + ", last sync=" + (index.getLastSync() == 0 ? "never" : new Date(index.getLastSync()))
+                    + ", last full sync=" + (index.getLastFullSync() == 0 ? "never" : new Date(index.getLastFullSync()))
+                    + ", last sync duration=" + index.getLastSyncDuration() + "ms");
+        }
+        for (Map.Entry<String, CacheStats> entry : gitlabClient.getCache().getStats().entrySet()) {
+            CacheStats stats = entry.getValue();
+            out.println("Cache " + entry.getKey() + ": hits=" + stats.hitCount() + ", misses=" + stats.missCount() + ", evictions=" + stats.evictionCount());
+        }
+    }
+
+    /**
+     * The status of the default instance, and the status of the other instances by name.
+     */
+    @Override
+    public JsonObject getJsonStatus() {
+        JsonObject status = getJsonStatus(GitlabClient.get());
+        JsonObject instances = new JsonObject();
+        for (String name : GitlabClientRegistry.getNames()) {
+            if (!GitlabClientRegistry.DEFAULT.equals(name)) {
+                instances.add(name, getJsonStatus(GitlabClientRegistry.get(name)));
+            }
+        }
+        status.add("instances", instances);
+        return status;
+    }
+
+    private JsonObject getJsonStatus(GitlabClient gitlabClient) {
+        JsonObject status = new JsonObject();
+        JsonArray operations = new JsonArray();
+        for (GitlabOperationSnapshot snapshot : gitlabClient.getMetrics().getSnapshots()) {
+            JsonObject operation = new JsonObject();
+            operation.addProperty("operation", snapshot.operation);
+            operation.addProperty("requests", snapshot.requests);
+            operation.addProperty("errors", snapshot.errors);
+            operation.addProperty("retries", snapshot.retries);
+            operation.addProperty("bytes", snapshot.bytes);
+            operation.addProperty("in_flight", snapshot.inFlight);
+            operation.addProperty("mean_us", snapshot.mean);
+            operation.addProperty("p50_us", snapshot.p50);
+            operation.addProperty("p95_us", snapshot.p95);
+            operation.addProperty("p99_us", snapshot.p99);
+            operation.addProperty("max_us", snapshot.max);
+            operations.add(operation);
+        }
+        status.add("operations", operations);
+        JsonArray rateLimits = new JsonArray();
+        for (GitlabToken token : gitlabClient.getAuthInterceptor().getTokens()) {
+            GitlabRateLimiter rateLimiter = token.getRateLimiter();
+            JsonObject rateLimit = new JsonObject();
+            rateLimit.addProperty("token", token.getLabel());
+            rateLimit.addProperty("remaining", rateLimiter.getRemaining());
+            rateLimit.addProperty("rate", rateLimiter.getRate());
+            rateLimit.addProperty("current_wait_ms", rateLimiter.getCurrentWait());
+            rateLimit.addProperty("wait_count", rateLimiter.getWaitCount());
+            rateLimit.addProperty("wait_time_ms", rateLimiter.getWaitTime());
+            rateLimit.addProperty("too_many_requests_count", rateLimiter.getTooManyRequestsCount());
+            rateLimit.addProperty("requests", token.getRequestCount());
+            rateLimit.addProperty("in_flight", token.getInFlight());
+            rateLimits.add(rateLimit);
+        }
+        // The first token is also reported as before
+        if (rateLimits.size() > 0) {
+            status.add("rate_limit", rateLimits.get(0));
+        }
+        status.add("rate_limits", rateLimits);
+        JsonObject circuits = new JsonObject();
+        gitlabClient.getCircuitBreaker().getStates().forEach((endpoint, state) -> circuits.addProperty(endpoint, state.name()));
+        status.add("circuits", circuits);
+        GitlabSingleFlight singleFlight = gitlabClient.getSingleFlight();
+        JsonObject coalescing = new JsonObject();
+        coalescing.addProperty("calls", singleFlight.getCallCount());
+        coalescing.addProperty("coalesced", singleFlight.getCoalescedCount());
+        coalescing.addProperty("in_flight", singleFlight.getInFlightCount());
+        status.add("single_flight", coalescing);
+        GitlabHedging hedging = gitlabClient.getHedging();
+        JsonObject hedgingStatus = new JsonObject();
+        hedgingStatus.addProperty("enabled", hedging.isEnabled());
+        hedgingStatus.addProperty("requests", hedging.getRequestCount());
+        hedgingStatus.addProperty("hedges", hedging.getHedgeCount());
+        hedgingStatus.addProperty("wins", hedging.getWinCount());
+        hedgingStatus.addProperty("budget_exceeded", hedging.getBudgetExceededCount());
+        hedgingStatus.addProperty("rejected", hedging.getRejectedCount());
+        status.add("hedging", hedgingStatus);
+        GitlabHttpCache httpCache = gitlabClient.getHttpCache();
+        JsonObject httpCacheStatus = new JsonObject();
+        httpCacheStatus.addProperty("enabled", httpCache.isEnabled());
+        httpCacheStatus.addProperty("hits", httpCache.getHitCount());
+        httpCacheStatus.addProperty("revalidated", httpCache.getRevalidatedCount());
+        httpCacheStatus.addProperty("misses", httpCache.getMissCount());
+        httpCacheStatus.addProperty("reused", httpCache.getReusedCount());
+        httpCacheStatus.addProperty("size", httpCache.getSize());
+        status.add("http_cache", httpCacheStatus);
+        GitlabHookHandler hookHandler = gitlabClient.getHookHandler();
+        JsonObject hooks = new JsonObject();
+        hooks.addProperty("enabled", hookHandler.isEnabled());
+        hooks.addProperty("received", hookHandler.getReceivedCount());
+        hooks.addProperty("applied", hookHandler.getAppliedCount());
+        hooks.addProperty("ignored", hookHandler.getIgnoredCount());
+        hooks.addProperty("errors", hookHandler.getErrorCount());
+        status.add("hooks", hooks);
+        GitlabBulkQueue queue = gitlabClient.getQueue();
+        JsonObject queueStatus = new JsonObject();
+        queueStatus.addProperty("enabled", queue.isEnabled());
+        queueStatus.addProperty("pending", queue.getPendingCount());
+        queueStatus.addProperty("running", queue.getRunningCount());
+        JsonArray jobs = new JsonArray();
+        for (GitlabBulkJob job : queue.getJobs()) {
+            GitlabBulkJobStatus jobStatus = job.getStatus();
+            JsonObject jobObject = new JsonObject();
+            jobObject.addProperty("id", jobStatus.id);
+            jobObject.addProperty("total", jobStatus.total);
+            jobObject.addProperty("pending", jobStatus.pending);
+            jobObject.addProperty("running", jobStatus.running);
+            jobObject.addProperty("done", jobStatus.done);
+            jobObject.addProperty("failed", jobStatus.failed);
+            jobObject.addProperty("retries", jobStatus.retries);
+            jobObject.addProperty("items_per_second", jobStatus.itemsPerSecond);
+            jobObject.addProperty("eta_seconds", jobStatus.etaSeconds);
+            jobs.add(jobObject);
+        }
+        queueStatus.add("jobs", jobs);
+        status.add("queue", queueStatus);
+        GitlabIndex index = gitlabClient.getIndex();
+        JsonObject indexStatus = new JsonObject();
+        indexStatus.addProperty("enabled", index.isEnabled());
+        indexStatus.addProperty("ready", index.isReady());
+        indexStatus.addProperty("users", index.getUserCount());
+        indexStatus.addProperty("groups", index.getGroupCount());
+        indexStatus.addProperty("projects", index.getProjectCount());
+        indexStatus.addProperty("last_sync", index.getLastSync());
+        indexStatus.addProperty("last_full_sync", index.getLastFullSync());
+        indexStatus.addProperty("last_sync_duration_ms", index.getLastSyncDuration());
+        status.add("index", indexStatus);
+        JsonObject caches = new JsonObject();
+        gitlabClient.getCache().getStats().forEach((region, stats) -> {
+            JsonObject cache = new JsonObject();
+            cache.addProperty("hits", stats.hitCount());
+            cache.addProperty("misses", stats.missCount());
+            cache.addProperty("evictions", stats.evictionCount());
+            caches.add(region, cache);
+        });
+        status.add("caches", caches);
+        return status;
+    }
+}
@@ -0,0 +1,16 @@
+package helpers.api.gitlab;
+
+/**
+ * Receives the progress of a download.
+ *
+ * @author jtremeaux
+ */
+public interface GitlabProgressListener {
+    /**
+     * Called each time a chunk of the body is written.
+     *
+     * @param bytesWritten Number of bytes written so far, including the bytes of a resumed download
+     * @param totalBytes Total size in bytes, -1 if unknown
+     */
+    void onProgress(long bytesWritten, long totalBytes);
+}
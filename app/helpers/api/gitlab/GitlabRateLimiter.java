@@ -0,0 +1,207 @@
+package helpers.api.gitlab;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side token bucket throttling the requests to Gitlab.
+ * The bucket is sized from the RateLimit-Remaining / RateLimit-Reset headers returned by Gitlab,
+ * so that the remaining budget is spread until the reset instead of being exhausted in a burst.
+ * Requests are paused until the Retry-After delay when Gitlab answers 429.
+ * Callers are blocked while waiting for a token: asynchronous calls are delayed on the dispatcher thread.
+ *
+ * @author jtremeaux
+ */
+public class GitlabRateLimiter implements Interceptor {
+    private final boolean enabled;
+
+    /**
+     * Available tokens, negative when tokens are reserved by waiting callers.
+     */
+    private double permits;
+
+    /**
+     * Maximum number of stored tokens.
+     */
+    private double capacity;
+
+    /**
+     * Tokens added per second, 0 if the budget is not known yet (no throttling).
+     */
+    private double rate;
+
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * No request is sent before this time (millis), 0 if not blocked.
+     */
+    private long blockedUntil;
+
+    /**
+     * Last remaining budget returned by Gitlab, -1 if unknown.
+     */
+    private long remaining = -1;
+
+    private final AtomicLong waitCount = new AtomicLong();
+
+    private final AtomicLong waitTime = new AtomicLong();
+
+    private final AtomicLong tooManyRequestsCount = new AtomicLong();
+
+    public GitlabRateLimiter(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (!enabled) {
+            return chain.proceed(chain.request());
+        }
+        acquire();
+        Response response = chain.proceed(chain.request());
+        update(response);
+        return response;
+    }
+
+    /**
+     * Take a token, waiting for it if necessary.
+     */
+    void acquire() throws InterruptedIOException {
+        if (!enabled) {
+            return;
+        }
+        long waitNanos = reserve();
+        if (waitNanos <= 0) {
+            return;
+        }
+        waitCount.incrementAndGet();
+        waitTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Gitlab rate limit");
+        }
+    }
+
+    /**
+     * Reserve a token.
+     *
+     * @return The time to wait before using the token, in nanoseconds
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        long blockedNanos = TimeUnit.MILLISECONDS.toNanos(blockedUntil - System.currentTimeMillis());
+        if (rate <= 0) {
+            return blockedNanos;
+        }
+        refill(now);
+        permits -= 1;
+        long waitNanos = permits >= 0 ? 0 : (long) (-permits / rate * TimeUnit.SECONDS.toNanos(1));
+        return Math.max(waitNanos, blockedNanos);
+    }
+
+    private void refill(long now) {
+        permits = Math.min(capacity, permits + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Resize the bucket from the rate limit headers of a response.
+     *
+     * @param response The response
+     */
+    synchronized void update(Response response) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (response.code() == 429) {
+            tooManyRequestsCount.incrementAndGet();
+            Long retryAfter = parseLong(response.header("Retry-After"));
+            blockedUntil = Math.max(blockedUntil, now + TimeUnit.SECONDS.toMillis(retryAfter != null ? retryAfter : 1));
+        }
+        Long remainingHeader = parseLong(response.header("RateLimit-Remaining"));
+        Long reset = parseLong(response.header("RateLimit-Reset"));
+        if (remainingHeader == null || reset == null) {
+            return;
+        }
+        remaining = remainingHeader;
+        long resetMillis = TimeUnit.SECONDS.toMillis(reset);
+        if (remaining <= 0) {
+            blockedUntil = Math.max(blockedUntil, resetMillis);
+            return;
+        }
+        double secondsToReset = Math.max(1, (resetMillis - now) / 1000.0);
+        refill(System.nanoTime());
+        rate = remaining / secondsToReset;
+        capacity = Math.max(1, Math.min(remaining, rate));
+        permits = Math.min(permits, capacity);
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the last remaining budget returned by Gitlab.
+     *
+     * @return The remaining number of requests, -1 if unknown
+     */
+    public synchronized long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Returns the current sustained rate.
+     *
+     * @return The rate in requests per second, 0 if not throttled
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the current wait time of a new request.
+     *
+     * @return The wait time in milliseconds
+     */
+    public synchronized long getCurrentWait() {
+        long blocked = blockedUntil - System.currentTimeMillis();
+        long wait = permits >= 1 || rate <= 0 ? 0 : (long) ((1 - permits) / rate * 1000);
+        return Math.max(0, Math.max(blocked, wait));
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * Returns the cumulated time spent by requests waiting for a token.
+     *
+     * @return The wait time in milliseconds
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    public long getTooManyRequestsCount() {
+        return tooManyRequestsCount.get();
+    }
+}
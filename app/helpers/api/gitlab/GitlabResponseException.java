@@ -0,0 +1,35 @@
+package helpers.api.gitlab;
+
+/**
+ * Error raised by the failure handler of a call, with the status code of the unsuccessful response.
+ *
+ * @author jtremeaux
+ */
+public class GitlabResponseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public GitlabResponseException(int code, String message, Throwable cause) {
+        super(message, cause);
+        this.code = code;
+    }
+
+    /**
+     * Returns the HTTP status code of the response.
+     *
+     * @return The status code
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns true if the same call may succeed later: on a server error, or when rate limited.
+     *
+     * @return True if transient
+     */
+    public boolean isTransient() {
+        return code >= 500 || code == 429 || code == 408;
+    }
+}
@@ -0,0 +1,150 @@
+package helpers.api.gitlab;
+
+import helpers.api.gitlab.metrics.GitlabMetrics;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry transient failures (connection errors, 429, 502, 503, 504) with a jittered exponential backoff.
+ * Idempotent requests (GET, HEAD, PUT, DELETE) are always retried.
+ * Other requests (POST) are retried according to the {@link PostPolicy}.
+ *
+ * @author jtremeaux
+ */
+public class GitlabRetryInterceptor implements Interceptor {
+    public enum PostPolicy {
+        /**
+         * Never retry.
+         */
+        NONE,
+
+        /**
+         * Retry only if the connection failed, i.e. the request was not sent.
+         */
+        CONNECT,
+
+        /**
+         * Retry as idempotent requests.
+         */
+        ALL
+    }
+
+    private final int maxAttempts;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    private final PostPolicy postPolicy;
+
+    private final GitlabMetrics metrics;
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxAttempts Maximum number of attempts, including the first one
+     * @param baseDelay Delay before the first retry, in milliseconds (doubled on each retry)
+     * @param maxDelay Maximum delay between two attempts, in milliseconds
+     * @param postPolicy Retry policy of the non idempotent requests
+     * @param metrics Records the retries
+     */
+    public GitlabRetryInterceptor(int maxAttempts, long baseDelay, long maxDelay, PostPolicy postPolicy, GitlabMetrics metrics) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.postPolicy = postPolicy;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        for (int attempt = 1; ; attempt++) {
+            boolean lastAttempt = attempt >= maxAttempts;
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (lastAttempt || chain.call().isCanceled() || !isRetryable(request, e)) {
+                    throw e;
+                }
+                backoff(request, attempt);
+                continue;
+            }
+            if (lastAttempt || !isRetryable(request, response)) {
+                return response;
+            }
+            response.close();
+            backoff(request, attempt);
+        }
+    }
+
+    private boolean isRetryable(Request request, IOException e) {
+        if (isIdempotent(request) || postPolicy == PostPolicy.ALL) {
+            return true;
+        }
+        return postPolicy == PostPolicy.CONNECT
+                && (e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException);
+    }
+
+    private boolean isRetryable(Request request, Response response) {
+        int code = response.code();
+        if (code == 429) {
+            // The request was rejected before being processed
+            return isIdempotent(request) || postPolicy != PostPolicy.NONE;
+        }
+        return (code == 502 || code == 503 || code == 504)
+                && (isIdempotent(request) || postPolicy == PostPolicy.ALL);
+    }
+
+    private static boolean isIdempotent(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Wait before the next attempt ("full jitter" exponential backoff).
+     *
+     * @param request The request
+     * @param attempt The number of the failed attempt
+     */
+    private void backoff(Request request, int attempt) throws InterruptedIOException {
+        retryCount.incrementAndGet();
+        metrics.recordRetry(request);
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+}
@@ -0,0 +1,134 @@
+package helpers.api.gitlab;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces the identical calls in flight: while a call is running, the callers asking for the same key
+ * wait for its outcome instead of sending their own request, and all receive its result or its error.
+ * Nothing is kept once the call is completed, this is not a cache.
+ *
+ * @author jtremeaux
+ */
+public class GitlabSingleFlight {
+    private final boolean enabled;
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong callCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public GitlabSingleFlight(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Execute a call, or wait for the identical call in flight.
+     * The first caller executes the call on its own thread.
+     *
+     * @param key The call key
+     * @param call The call
+     * @return The result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        callCount.incrementAndGet();
+        try {
+            T result = call.get();
+            inFlight.remove(key, future);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Execute a call asynchronously, or wait for the identical call in flight.
+     * Cancelling the returned future doesn't cancel the shared call.
+     *
+     * @param key The call key
+     * @param call Starts the call
+     * @return The future result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return existing.thenApply(result -> (T) result);
+        }
+        callCount.incrementAndGet();
+        CompletableFuture<T> shared;
+        try {
+            shared = call.get();
+        } catch (RuntimeException e) {
+            shared = new CompletableFuture<>();
+            shared.completeExceptionally(e);
+        }
+        shared.whenComplete((result, e) -> {
+            inFlight.remove(key, future);
+            if (e != null) {
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future.thenApply(result -> (T) result);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of calls actually executed.
+     *
+     * @return The call count
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * Returns the number of callers served by a call in flight.
+     *
+     * @return The coalesced count
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns the number of calls in flight.
+     *
+     * @return The in-flight count
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
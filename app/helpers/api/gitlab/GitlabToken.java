@@ -0,0 +1,58 @@
+package helpers.api.gitlab;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Gitlab access token, with its own rate limit budget.
+ *
+ * @author jtremeaux
+ */
+public class GitlabToken {
+    private final String value;
+
+    private final GitlabRateLimiter rateLimiter;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    public GitlabToken(String value, GitlabRateLimiter rateLimiter) {
+        this.value = value;
+        this.rateLimiter = rateLimiter;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the token with its secret part hidden, for display.
+     *
+     * @return The label
+     */
+    public String getLabel() {
+        return value.length() <= 8 ? "****" : value.substring(0, 4) + "****" + value.substring(value.length() - 4);
+    }
+
+    public GitlabRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    void start() {
+        inFlight.incrementAndGet();
+        requestCount.incrementAndGet();
+    }
+
+    void end() {
+        inFlight.decrementAndGet();
+    }
+}
@@ -0,0 +1,228 @@
+package helpers.api.gitlab.hook;
+
+import helpers.api.gitlab.GitlabCache;
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.index.GitlabIndex;
+import helpers.api.gitlab.model.GitlabGroup;
+import helpers.api.gitlab.model.GitlabHookEvent;
+import helpers.api.gitlab.model.GitlabProject;
+import helpers.api.gitlab.model.GitlabUser;
+import play.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the Gitlab hook events to the cache and to the index: the entries of the deleted entities are evicted,
+ * the created and renamed ones are updated from the payload, and the projects are fetched again if priming is enabled
+ * (the payload lacks some of their fields).
+ *
+ * @author jtremeaux
+ */
+public class GitlabHookHandler {
+    private final GitlabClient gitlabClient;
+
+    private final String token;
+
+    private final boolean prime;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+
+    private final AtomicLong appliedCount = new AtomicLong();
+
+    private final AtomicLong ignoredCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    public GitlabHookHandler(GitlabClient gitlabClient, String token, boolean prime) {
+        this.gitlabClient = gitlabClient;
+        this.token = token;
+        this.prime = prime;
+    }
+
+    /**
+     * The hooks are accepted only if a secret token is configured.
+     *
+     * @return True if the hooks are enabled
+     */
+    public boolean isEnabled() {
+        return token != null && !token.isEmpty();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Apply an event asynchronously.
+     *
+     * @param event The event
+     */
+    public void submit(GitlabHookEvent event) {
+        receivedCount.incrementAndGet();
+        new GitlabHookJob(this, event).now();
+    }
+
+    /**
+     * Apply an event.
+     *
+     * @param event The event
+     */
+    public void apply(GitlabHookEvent event) {
+        try {
+            if (doApply(event)) {
+                appliedCount.incrementAndGet();
+            } else {
+                ignoredCount.incrementAndGet();
+            }
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            Logger.error(e, "Error applying the Gitlab hook event: " + (event.eventName != null ? event.eventName : event.objectKind));
+        }
+    }
+
+    private boolean doApply(GitlabHookEvent event) {
+        GitlabCache cache = gitlabClient.getCache();
+        GitlabIndex index = gitlabClient.getIndex();
+        if (event.eventName == null) {
+            // Project hook: the project may have changed
+            if (event.objectKind == null || event.projectId == null) {
+                return false;
+            }
+            cache.invalidate(GitlabCache.PROJECT, event.projectId);
+            return true;
+        }
+        switch (event.eventName) {
+            case "project_create":
+            case "project_update":
+            case "project_rename":
+            case "project_transfer":
+                cache.invalidate(GitlabCache.PROJECT, event.projectId);
+                if (prime) {
+                    gitlabClient.getProjectService().refreshProject(event.projectId);
+                } else {
+                    indexProject(event);
+                }
+                return true;
+
+            case "project_destroy":
+                cache.invalidate(GitlabCache.PROJECT, event.projectId);
+                cache.invalidate(GitlabCache.VARIABLES, event.projectId);
+                index.removeProject(event.projectId);
+                return true;
+
+            case "group_create":
+            case "group_rename":
+            case "subgroup_create":
+                cache.put(GitlabCache.GROUP, event.groupId, true);
+                indexGroup(event);
+                return true;
+
+            case "group_destroy":
+            case "subgroup_destroy":
+                cache.invalidate(GitlabCache.GROUP, event.groupId);
+                cache.invalidate(GitlabCache.GROUP_MEMBERS, event.groupId);
+                for (GitlabProject project : index.getProjectsByNamespace(event.groupId)) {
+                    cache.invalidate(GitlabCache.PROJECT, project.id);
+                    cache.invalidate(GitlabCache.VARIABLES, project.id);
+                    index.removeProject(project.id);
+                }
+                index.removeGroup(event.groupId);
+                return true;
+
+            case "user_create":
+            case "user_rename":
+                cache.put(GitlabCache.USER, event.userId, true);
+                GitlabUser user = new GitlabUser();
+                user.id = event.userId;
+                user.username = event.username;
+                user.name = event.name;
+                index.putUser(user);
+                return true;
+
+            case "user_destroy":
+                cache.invalidate(GitlabCache.USER, event.userId);
+                // The user was a member of unknown groups
+                cache.invalidateAll(GitlabCache.GROUP_MEMBERS);
+                index.removeUser(event.userId);
+                return true;
+
+            case "user_add_to_group":
+            case "user_update_for_group":
+            case "user_remove_from_group":
+                cache.invalidate(GitlabCache.GROUP_MEMBERS, event.groupId);
+                return true;
+
+            default:
+                // The project members are not cached
+                return false;
+        }
+    }
+
+    /**
+     * Update the indexed project from the event.
+     * The event lacks some fields: a new project is left to the next sync, and the SSH URL of a moved project
+     * is cleared until the next sync.
+     */
+    private void indexProject(GitlabHookEvent event) {
+        GitlabProject indexed = gitlabClient.getIndex().getProject(event.projectId);
+        if (indexed == null) {
+            return;
+        }
+        GitlabProject project = new GitlabProject();
+        project.id = event.projectId;
+        project.name = event.name;
+        project.path = event.path;
+        project.pathWithNamespace = event.pathWithNamespace;
+        project.namespaceId = indexed.namespaceId;
+        project.updatedAt = indexed.updatedAt;
+        if (project.pathWithNamespace != null && project.pathWithNamespace.equals(indexed.pathWithNamespace)) {
+            project.sshUrlToRepo = indexed.sshUrlToRepo;
+        } else if (project.pathWithNamespace != null && project.pathWithNamespace.contains("/")) {
+            GitlabGroup group = gitlabClient.getIndex().getGroupByPath(project.pathWithNamespace.substring(0, project.pathWithNamespace.lastIndexOf('/')));
+            project.namespaceId = group == null ? null : group.id;
+        }
+        gitlabClient.getIndex().putProject(project);
+    }
+
+    private void indexGroup(GitlabHookEvent event) {
+        GitlabIndex index = gitlabClient.getIndex();
+        GitlabGroup previous = index.getGroup(event.groupId);
+        GitlabGroup group = new GitlabGroup();
+        group.id = event.groupId;
+        group.name = event.name;
+        group.path = event.path;
+        group.fullPath = event.fullPath != null ? event.fullPath : event.path;
+        index.putGroup(group);
+        if (previous != null && previous.fullPath != null && !previous.fullPath.equals(group.fullPath)) {
+            // The path of the projects of the group changed too
+            for (GitlabProject indexed : index.getProjectsByNamespace(group.id)) {
+                GitlabProject project = new GitlabProject();
+                project.id = indexed.id;
+                project.name = indexed.name;
+                project.path = indexed.path;
+                project.pathWithNamespace = group.fullPath + "/" + indexed.path;
+                project.namespaceId = indexed.namespaceId;
+                // The SSH URL changed with the path, it is known again at the next sync
+                project.updatedAt = indexed.updatedAt;
+                index.putProject(project);
+                gitlabClient.getCache().invalidate(GitlabCache.PROJECT, project.id);
+            }
+        }
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getAppliedCount() {
+        return appliedCount.get();
+    }
+
+    public long getIgnoredCount() {
+        return ignoredCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+}
@@ -0,0 +1,25 @@
+package helpers.api.gitlab.hook;
+
+import helpers.api.gitlab.model.GitlabHookEvent;
+import play.jobs.Job;
+
+/**
+ * Applies a Gitlab hook event outside of the request, so that Gitlab gets its response immediately.
+ *
+ * @author jtremeaux
+ */
+public class GitlabHookJob extends Job<Void> {
+    private final GitlabHookHandler handler;
+
+    private final GitlabHookEvent event;
+
+    public GitlabHookJob(GitlabHookHandler handler, GitlabHookEvent event) {
+        this.handler = handler;
+        this.event = event;
+    }
+
+    @Override
+    public void doJob() {
+        handler.apply(event);
+    }
+}
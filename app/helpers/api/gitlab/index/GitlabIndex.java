@@ -0,0 +1,469 @@
+package helpers.api.gitlab.index;
+
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.model.GitlabGroup;
+import helpers.api.gitlab.model.GitlabProject;
+import helpers.api.gitlab.model.GitlabUser;
+import play.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local index of the Gitlab users, groups and projects, for lookups by ID, username and path without any call.
+ * The index is filled by a full sync, then kept current by incremental syncs of the entities updated since the last one
+ * (Gitlab cannot order the groups by update date: they are listed entirely on each sync),
+ * by the writes through the services and by the system hooks. Deleted entities are only seen by the full syncs.
+ * The index is saved to a compact snapshot file after each sync, and loaded on startup.
+ *
+ * @author jtremeaux
+ */
+public class GitlabIndex {
+    private static final int SNAPSHOT_MAGIC = 0x474c4958;
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * The incremental syncs also fetch the entities updated this long before the last sync,
+     * in case of clock skew or of transactions committed late.
+     */
+    private static final long SYNC_OVERLAP = TimeUnit.MINUTES.toMillis(1);
+
+    private final boolean enabled;
+
+    private final File file;
+
+    private final int syncInterval;
+
+    private final long fullSyncInterval;
+
+    private final Map<Integer, GitlabUser> users = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> userIdsByUsername = new ConcurrentHashMap<>();
+
+    private final Map<Integer, GitlabGroup> groups = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> groupIdsByPath = new ConcurrentHashMap<>();
+
+    private final Map<Integer, GitlabProject> projects = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> projectIdsByPath = new ConcurrentHashMap<>();
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    /**
+     * Most recent update date of the synced users, 0 before the first sync.
+     */
+    private volatile long userWatermark;
+
+    /**
+     * Most recent update date of the synced projects, 0 before the first sync.
+     */
+    private volatile long projectWatermark;
+
+    private volatile long lastFullSync;
+
+    private volatile long lastSync;
+
+    private volatile long lastSyncDuration;
+
+    private volatile boolean ready;
+
+    /**
+     * Constructor.
+     *
+     * @param enabled Index enabled
+     * @param file The snapshot file
+     * @param syncInterval Interval between two syncs, in seconds
+     * @param fullSyncInterval Interval between two full syncs, in seconds
+     */
+    public GitlabIndex(boolean enabled, File file, int syncInterval, long fullSyncInterval) {
+        this.enabled = enabled;
+        this.file = file;
+        this.syncInterval = syncInterval;
+        this.fullSyncInterval = TimeUnit.SECONDS.toMillis(fullSyncInterval);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the interval between two syncs.
+     *
+     * @return The interval in seconds
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * The index can answer the lookups once it was synced or loaded from a snapshot.
+     *
+     * @return True if the index is ready
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    public GitlabUser getUser(Integer id) {
+        return isReady() ? users.get(id) : null;
+    }
+
+    public GitlabUser getUserByUsername(String username) {
+        Integer id = isReady() && username != null ? userIdsByUsername.get(username.toLowerCase()) : null;
+        return id == null ? null : users.get(id);
+    }
+
+    public GitlabGroup getGroup(Integer id) {
+        return isReady() ? groups.get(id) : null;
+    }
+
+    public GitlabGroup getGroupByPath(String fullPath) {
+        Integer id = isReady() && fullPath != null ? groupIdsByPath.get(fullPath.toLowerCase()) : null;
+        return id == null ? null : groups.get(id);
+    }
+
+    public GitlabProject getProject(Integer id) {
+        return isReady() ? projects.get(id) : null;
+    }
+
+    public GitlabProject getProjectByPath(String pathWithNamespace) {
+        Integer id = isReady() && pathWithNamespace != null ? projectIdsByPath.get(pathWithNamespace.toLowerCase()) : null;
+        return id == null ? null : projects.get(id);
+    }
+
+    /**
+     * Returns the indexed projects of a group (not of its subgroups).
+     *
+     * @param namespaceId The group ID
+     * @return The projects
+     */
+    public List<GitlabProject> getProjectsByNamespace(Integer namespaceId) {
+        List<GitlabProject> list = new ArrayList<>();
+        for (GitlabProject project : projects.values()) {
+            if (namespaceId.equals(project.namespaceId)) {
+                list.add(project);
+            }
+        }
+        return list;
+    }
+
+    public synchronized void putUser(GitlabUser user) {
+        if (!enabled || user.id == null) {
+            return;
+        }
+        GitlabUser previous = users.put(user.id, user);
+        if (previous != null && previous.username != null) {
+            userIdsByUsername.remove(previous.username.toLowerCase(), previous.id);
+        }
+        if (user.username != null) {
+            userIdsByUsername.put(user.username.toLowerCase(), user.id);
+        }
+    }
+
+    public synchronized void removeUser(Integer id) {
+        GitlabUser previous = users.remove(id);
+        if (previous != null && previous.username != null) {
+            userIdsByUsername.remove(previous.username.toLowerCase(), previous.id);
+        }
+    }
+
+    public synchronized void putGroup(GitlabGroup group) {
+        if (!enabled || group.id == null) {
+            return;
+        }
+        GitlabGroup previous = groups.put(group.id, group);
+        if (previous != null && previous.fullPath != null) {
+            groupIdsByPath.remove(previous.fullPath.toLowerCase(), previous.id);
+        }
+        if (group.fullPath != null) {
+            groupIdsByPath.put(group.fullPath.toLowerCase(), group.id);
+        }
+    }
+
+    public synchronized void removeGroup(Integer id) {
+        GitlabGroup previous = groups.remove(id);
+        if (previous != null && previous.fullPath != null) {
+            groupIdsByPath.remove(previous.fullPath.toLowerCase(), previous.id);
+        }
+    }
+
+    public synchronized void putProject(GitlabProject project) {
+        if (!enabled || project.id == null) {
+            return;
+        }
+        GitlabProject previous = projects.put(project.id, project);
+        if (previous != null && previous.pathWithNamespace != null) {
+            projectIdsByPath.remove(previous.pathWithNamespace.toLowerCase(), previous.id);
+        }
+        if (project.pathWithNamespace != null) {
+            projectIdsByPath.put(project.pathWithNamespace.toLowerCase(), project.id);
+        }
+    }
+
+    public synchronized void removeProject(Integer id) {
+        GitlabProject previous = projects.remove(id);
+        if (previous != null && previous.pathWithNamespace != null) {
+            projectIdsByPath.remove(previous.pathWithNamespace.toLowerCase(), previous.id);
+        }
+    }
+
+    /**
+     * Sync the index with Gitlab: a full sync if the index was never synced or if the full sync interval has elapsed,
+     * an incremental sync otherwise. The snapshot is saved afterwards.
+     * Does nothing if a sync is already running.
+     *
+     * @param gitlabClient The client
+     */
+    public void sync(GitlabClient gitlabClient) {
+        if (!enabled || !syncLock.tryLock()) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            boolean full = lastFullSync == 0 || start - lastFullSync >= fullSyncInterval;
+            syncUsers(gitlabClient, full);
+            syncGroups(gitlabClient);
+            syncProjects(gitlabClient, full);
+            if (full) {
+                lastFullSync = start;
+            }
+            lastSync = start;
+            lastSyncDuration = System.currentTimeMillis() - start;
+            ready = true;
+            save();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void syncUsers(GitlabClient gitlabClient, boolean full) {
+        long watermark = full ? 0 : userWatermark - SYNC_OVERLAP;
+        Set<Integer> seenIds = new HashSet<>();
+        long maxUpdatedAt = userWatermark;
+        try (Stream<GitlabUser> stream = gitlabClient.getUserService().streamUsersByUpdateDate()) {
+            Iterator<GitlabUser> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                GitlabUser user = iterator.next();
+                if (user.updatedAt != null) {
+                    if (user.updatedAt.getTime() < watermark) {
+                        break;
+                    }
+                    maxUpdatedAt = Math.max(maxUpdatedAt, user.updatedAt.getTime());
+                }
+                seenIds.add(user.id);
+                putUser(user);
+            }
+        }
+        if (full) {
+            users.keySet().stream().filter(id -> !seenIds.contains(id)).forEach(this::removeUser);
+        }
+        userWatermark = maxUpdatedAt;
+    }
+
+    private void syncGroups(GitlabClient gitlabClient) {
+        Set<Integer> seenIds = new HashSet<>();
+        try (Stream<GitlabGroup> stream = gitlabClient.getGroupService().streamGroups()) {
+            stream.forEach(group -> {
+                seenIds.add(group.id);
+                putGroup(group);
+            });
+        }
+        groups.keySet().stream().filter(id -> !seenIds.contains(id)).forEach(this::removeGroup);
+    }
+
+    private void syncProjects(GitlabClient gitlabClient, boolean full) {
+        long watermark = full ? 0 : projectWatermark - SYNC_OVERLAP;
+        Set<Integer> seenIds = new HashSet<>();
+        long maxUpdatedAt = projectWatermark;
+        try (Stream<GitlabProject> stream = gitlabClient.getProjectService().streamProjectsByUpdateDate(full ? null : new Date(watermark))) {
+            Iterator<GitlabProject> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                GitlabProject project = iterator.next();
+                if (project.updatedAt != null) {
+                    if (project.updatedAt.getTime() < watermark) {
+                        break;
+                    }
+                    maxUpdatedAt = Math.max(maxUpdatedAt, project.updatedAt.getTime());
+                }
+                seenIds.add(project.id);
+                putProject(project);
+            }
+        }
+        if (full) {
+            projects.keySet().stream().filter(id -> !seenIds.contains(id)).forEach(this::removeProject);
+        }
+        projectWatermark = maxUpdatedAt;
+    }
+
+    /**
+     * Load the snapshot, if any. The index is ready if the snapshot was loaded.
+     */
+    public void load() {
+        if (!enabled || !file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                Logger.warn("Ignoring the Gitlab index snapshot with an unknown format: " + file);
+                return;
+            }
+            userWatermark = in.readLong();
+            projectWatermark = in.readLong();
+            lastFullSync = in.readLong();
+            lastSync = in.readLong();
+            for (int i = in.readInt(); i > 0; i--) {
+                GitlabUser user = new GitlabUser();
+                user.id = in.readInt();
+                user.username = readString(in);
+                user.name = readString(in);
+                user.updatedAt = readDate(in);
+                putUser(user);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                GitlabGroup group = new GitlabGroup();
+                group.id = in.readInt();
+                group.name = readString(in);
+                group.path = readString(in);
+                group.fullPath = readString(in);
+                group.updatedAt = readDate(in);
+                putGroup(group);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                GitlabProject project = new GitlabProject();
+                project.id = in.readInt();
+                project.name = readString(in);
+                project.path = readString(in);
+                project.pathWithNamespace = readString(in);
+                project.sshUrlToRepo = readString(in);
+                project.namespaceId = in.readBoolean() ? in.readInt() : null;
+                project.updatedAt = readDate(in);
+                putProject(project);
+            }
+            ready = true;
+        } catch (IOException e) {
+            Logger.error(e, "Error loading the Gitlab index snapshot: " + file);
+        }
+    }
+
+    /**
+     * Save the snapshot. The file is replaced atomically.
+     */
+    public void save() {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Cannot create the directory: " + directory);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(userWatermark);
+                out.writeLong(projectWatermark);
+                out.writeLong(lastFullSync);
+                out.writeLong(lastSync);
+                List<GitlabUser> userList = new ArrayList<>(users.values());
+                out.writeInt(userList.size());
+                for (GitlabUser user : userList) {
+                    out.writeInt(user.id);
+                    writeString(out, user.username);
+                    writeString(out, user.name);
+                    writeDate(out, user.updatedAt);
+                }
+                List<GitlabGroup> groupList = new ArrayList<>(groups.values());
+                out.writeInt(groupList.size());
+                for (GitlabGroup group : groupList) {
+                    out.writeInt(group.id);
+                    writeString(out, group.name);
+                    writeString(out, group.path);
+                    writeString(out, group.fullPath);
+                    writeDate(out, group.updatedAt);
+                }
+                List<GitlabProject> projectList = new ArrayList<>(projects.values());
+                out.writeInt(projectList.size());
+                for (GitlabProject project : projectList) {
+                    out.writeInt(project.id);
+                    writeString(out, project.name);
+                    writeString(out, project.path);
+                    writeString(out, project.pathWithNamespace);
+                    writeString(out, project.sshUrlToRepo);
+                    out.writeBoolean(project.namespaceId != null);
+                    if (project.namespaceId != null) {
+                        out.writeInt(project.namespaceId);
+                    }
+                    writeDate(out, project.updatedAt);
+                }
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.error(e, "Error saving the Gitlab index snapshot: " + file);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date == null ? -1 : date.getTime());
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time < 0 ? null : new Date(time);
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    public int getProjectCount() {
+        return projects.size();
+    }
+
+    public long getLastSync() {
+        return lastSync;
+    }
+
+    public long getLastFullSync() {
+        return lastFullSync;
+    }
+
+    public long getLastSyncDuration() {
+        return lastSyncDuration;
+    }
+}
@@ -0,0 +1,27 @@
+package helpers.api.gitlab.index;
+
+import helpers.api.gitlab.GitlabClient;
+import play.Logger;
+import play.jobs.Job;
+
+/**
+ * Syncs the Gitlab index periodically.
+ *
+ * @author jtremeaux
+ */
+public class GitlabIndexJob extends Job<Void> {
+    private final GitlabClient gitlabClient;
+
+    public GitlabIndexJob(GitlabClient gitlabClient) {
+        this.gitlabClient = gitlabClient;
+    }
+
+    @Override
+    public void doJob() {
+        try {
+            gitlabClient.getIndex().sync(gitlabClient);
+        } catch (Exception e) {
+            Logger.error(e, "Error syncing the Gitlab index of the instance: " + gitlabClient.getName());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Gitlab GraphQL queries and streaming decoding of their results.
+ *
+ * @author jtremeaux
+ */
+public class GitlabGraphql {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    /**
+     * Build the body of a query taking a list of global IDs ($ids) and a page size ($first).
+     *
+     * @param query The GraphQL query
+     * @param type The type of the global IDs (e.g. "Project")
+     * @param ids The IDs
+     * @return The request body
+     */
+    public static RequestBody newIdsQuery(String query, String type, Collection<Integer> ids) {
+        StringWriter body = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(body)) {
+            writer.beginObject();
+            writer.name("query").value(query);
+            writer.name("variables").beginObject();
+            writer.name("first").value(ids.size());
+            writer.name("ids").beginArray();
+            for (Integer id : ids) {
+                writer.value(toGlobalId(type, id));
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing the GraphQL query", e);
+        }
+        return RequestBody.create(JSON, body.toString());
+    }
+
+    /**
+     * Read the nodes of a connection field from the response body, e.g. {"data": {"projects": {"nodes": [...]}}}.
+     *
+     * @param response The response
+     * @param field The connection field
+     * @param adapter The type adapter of the nodes
+     * @return The nodes
+     */
+    public static <T> List<T> readNodes(Response response, String field, TypeAdapter<T> adapter) throws IOException {
+        List<T> nodes = null;
+        String errors = null;
+        try (JsonReader reader = GitlabJson.newReader(response)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "data":
+                        nodes = readData(reader, field, adapter);
+                        break;
+                    case "errors":
+                        errors = readErrors(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+        }
+        if (nodes == null) {
+            throw new RuntimeException("Error executing GraphQL query: " + field + ", errors were: " + errors);
+        }
+        return nodes;
+    }
+
+    private static <T> List<T> readData(JsonReader reader, String field, TypeAdapter<T> adapter) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<T> nodes = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (field.equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("nodes".equals(reader.nextName())) {
+                        nodes = GitlabJson.readList(reader, adapter);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return nodes;
+    }
+
+    private static String readErrors(JsonReader reader) throws IOException {
+        List<String> messages = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("message".equals(reader.nextName())) {
+                    messages.add(GitlabJson.nextString(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return messages.toString();
+    }
+
+    /**
+     * Returns the global ID of an entity.
+     *
+     * @param type The entity type (e.g. "Project")
+     * @param id The ID
+     * @return The global ID (e.g. "gid://gitlab/Project/1")
+     */
+    public static String toGlobalId(String type, Integer id) {
+        return "gid://gitlab/" + type + "/" + id;
+    }
+
+    /**
+     * Returns the ID from a global ID.
+     *
+     * @param globalId The global ID (e.g. "gid://gitlab/Project/1")
+     * @return The ID
+     */
+    public static Integer fromGlobalId(String globalId) {
+        if (globalId == null) {
+            return null;
+        }
+        return Integer.valueOf(globalId.substring(globalId.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Read a global ID as an ID.
+     *
+     * @param reader The reader
+     * @return The ID
+     */
+    public static Integer nextGlobalId(JsonReader reader) throws IOException {
+        return fromGlobalId(GitlabJson.nextString(reader));
+    }
+}
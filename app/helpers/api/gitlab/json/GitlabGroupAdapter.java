@@ -0,0 +1,60 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabGroup;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabJson.formatDate;
+import static helpers.api.gitlab.json.GitlabJson.nextDate;
+import static helpers.api.gitlab.json.GitlabJson.nextInteger;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabGroupAdapter extends TypeAdapter<GitlabGroup> {
+    public static final GitlabGroupAdapter INSTANCE = new GitlabGroupAdapter();
+
+    @Override
+    public GitlabGroup read(JsonReader reader) throws IOException {
+        GitlabGroup group = new GitlabGroup();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    group.id = nextInteger(reader);
+                    break;
+                case "name":
+                    group.name = nextString(reader);
+                    break;
+                case "path":
+                    group.path = nextString(reader);
+                    break;
+                case "full_path":
+                    group.fullPath = nextString(reader);
+                    break;
+                case "updated_at":
+                    group.updatedAt = nextDate(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return group;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabGroup group) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(group.id);
+        writer.name("name").value(group.name);
+        writer.name("path").value(group.path);
+        writer.name("full_path").value(group.fullPath);
+        writer.name("updated_at").value(formatDate(group.updatedAt));
+        writer.endObject();
+    }
+}
@@ -0,0 +1,62 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabGroup;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabGraphql.nextGlobalId;
+import static helpers.api.gitlab.json.GitlabGraphql.toGlobalId;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * Adapter of the GraphQL group nodes.
+ *
+ * @author jtremeaux
+ */
+public class GitlabGroupNodeAdapter extends TypeAdapter<GitlabGroup> {
+    public static final GitlabGroupNodeAdapter INSTANCE = new GitlabGroupNodeAdapter();
+
+    /**
+     * The fields to query.
+     */
+    public static final String FIELDS = "id name path fullPath";
+
+    @Override
+    public GitlabGroup read(JsonReader reader) throws IOException {
+        GitlabGroup group = new GitlabGroup();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    group.id = nextGlobalId(reader);
+                    break;
+                case "name":
+                    group.name = nextString(reader);
+                    break;
+                case "path":
+                    group.path = nextString(reader);
+                    break;
+                case "fullPath":
+                    group.fullPath = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return group;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabGroup group) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(toGlobalId("Group", group.id));
+        writer.name("name").value(group.name);
+        writer.name("path").value(group.path);
+        writer.name("fullPath").value(group.fullPath);
+        writer.endObject();
+    }
+}
@@ -0,0 +1,119 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabHookEvent;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabJson.nextInteger;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * Reads the payload of the system hooks (flat objects named by "event_name"),
+ * and of the project hooks (named by "object_kind", with a nested "project" object).
+ *
+ * @author jtremeaux
+ */
+public class GitlabHookEventAdapter extends TypeAdapter<GitlabHookEvent> {
+    public static final GitlabHookEventAdapter INSTANCE = new GitlabHookEventAdapter();
+
+    @Override
+    public GitlabHookEvent read(JsonReader reader) throws IOException {
+        GitlabHookEvent event = new GitlabHookEvent();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "event_name":
+                    event.eventName = nextString(reader);
+                    break;
+                case "object_kind":
+                    event.objectKind = nextString(reader);
+                    break;
+                case "project_id":
+                    event.projectId = nextInteger(reader);
+                    break;
+                case "group_id":
+                    event.groupId = nextInteger(reader);
+                    break;
+                case "user_id":
+                    event.userId = nextInteger(reader);
+                    break;
+                case "name":
+                    event.name = nextString(reader);
+                    break;
+                case "path":
+                    event.path = nextString(reader);
+                    break;
+                case "full_path":
+                    event.fullPath = nextString(reader);
+                    break;
+                case "path_with_namespace":
+                case "project_path_with_namespace":
+                    event.pathWithNamespace = nextString(reader);
+                    break;
+                case "username":
+                case "user_username":
+                    event.username = nextString(reader);
+                    break;
+                case "access_level":
+                case "group_access":
+                    event.accessLevel = nextAccessLevel(reader);
+                    break;
+                case "project":
+                    readProjectId(reader, event);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return event;
+    }
+
+    /**
+     * The access level is a number in the group member events, and a name (e.g. "Developer") in the project member events.
+     */
+    private Integer nextAccessLevel(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NUMBER) {
+            return reader.nextInt();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private void readProjectId(JsonReader reader, GitlabHookEvent event) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName()) && event.projectId == null) {
+                event.projectId = nextInteger(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabHookEvent event) throws IOException {
+        writer.beginObject();
+        writer.name("event_name").value(event.eventName);
+        writer.name("object_kind").value(event.objectKind);
+        writer.name("project_id").value(event.projectId);
+        writer.name("group_id").value(event.groupId);
+        writer.name("user_id").value(event.userId);
+        writer.name("name").value(event.name);
+        writer.name("path").value(event.path);
+        writer.name("full_path").value(event.fullPath);
+        writer.name("path_with_namespace").value(event.pathWithNamespace);
+        writer.name("username").value(event.username);
+        writer.name("access_level").value(event.accessLevel);
+        writer.endObject();
+    }
+}
@@ -0,0 +1,138 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Streaming decoding of Gitlab responses.
+ * The body is read token by token from the response source, without building an intermediate tree.
+ * Unused fields are skipped.
+ *
+ * @author jtremeaux
+ */
+public class GitlabJson {
+    /**
+     * Read a JSON object from the response body.
+     *
+     * @param response The response
+     * @param adapter The type adapter
+     * @return The object
+     */
+    public static <T> T read(Response response, TypeAdapter<T> adapter) throws IOException {
+        try (JsonReader reader = newReader(response)) {
+            return adapter.read(reader);
+        }
+    }
+
+    /**
+     * Read a JSON array of objects from the response body.
+     *
+     * @param response The response
+     * @param adapter The type adapter of the elements
+     * @return The elements
+     */
+    public static <T> List<T> readList(Response response, TypeAdapter<T> adapter) throws IOException {
+        try (JsonReader reader = newReader(response)) {
+            return readList(reader, adapter);
+        }
+    }
+
+    /**
+     * Read a JSON array of objects.
+     *
+     * @param reader The reader
+     * @param adapter The type adapter of the elements
+     * @return The elements
+     */
+    public static <T> List<T> readList(JsonReader reader, TypeAdapter<T> adapter) throws IOException {
+        List<T> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(adapter.read(reader));
+        }
+        reader.endArray();
+        return list;
+    }
+
+    /**
+     * Read a single top-level field of the JSON object in the response body, skipping the others.
+     *
+     * @param response The response
+     * @param name The field name
+     * @return The field value as a string, or null if absent
+     */
+    public static String readField(Response response, String name) throws IOException {
+        try (JsonReader reader = newReader(response)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (name.equals(reader.nextName())) {
+                    return nextString(reader);
+                }
+                reader.skipValue();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read the ID of the JSON object in the response body.
+     *
+     * @param response The response
+     * @return The ID
+     */
+    public static Integer readId(Response response) throws IOException {
+        String id = readField(response, "id");
+        return id == null ? null : Integer.valueOf(id);
+    }
+
+    public static JsonReader newReader(Response response) {
+        return new JsonReader(response.body().charStream());
+    }
+
+    public static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    public static Integer nextInteger(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextInt();
+    }
+
+    public static boolean nextBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Read an ISO 8601 date (e.g. "2019-03-15T08:00:00.000Z").
+     *
+     * @param reader The reader
+     * @return The date
+     */
+    public static Date nextDate(JsonReader reader) throws IOException {
+        String value = nextString(reader);
+        return value == null ? null : Date.from(OffsetDateTime.parse(value).toInstant());
+    }
+
+    public static String formatDate(Date date) {
+        return date == null ? null : date.toInstant().toString();
+    }
+}
@@ -0,0 +1,50 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabMember;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabJson.nextInteger;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabMemberAdapter extends TypeAdapter<GitlabMember> {
+    public static final GitlabMemberAdapter INSTANCE = new GitlabMemberAdapter();
+
+    @Override
+    public GitlabMember read(JsonReader reader) throws IOException {
+        GitlabMember member = new GitlabMember();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    member.id = nextInteger(reader);
+                    break;
+                case "username":
+                    member.username = nextString(reader);
+                    break;
+                case "access_level":
+                    member.accessLevel = nextInteger(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return member;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabMember member) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(member.id);
+        writer.name("username").value(member.username);
+        writer.name("access_level").value(member.accessLevel);
+        writer.endObject();
+    }
+}
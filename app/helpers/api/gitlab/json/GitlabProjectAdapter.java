@@ -0,0 +1,82 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabProject;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabJson.formatDate;
+import static helpers.api.gitlab.json.GitlabJson.nextDate;
+import static helpers.api.gitlab.json.GitlabJson.nextInteger;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabProjectAdapter extends TypeAdapter<GitlabProject> {
+    public static final GitlabProjectAdapter INSTANCE = new GitlabProjectAdapter();
+
+    @Override
+    public GitlabProject read(JsonReader reader) throws IOException {
+        GitlabProject project = new GitlabProject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    project.id = nextInteger(reader);
+                    break;
+                case "name":
+                    project.name = nextString(reader);
+                    break;
+                case "path":
+                    project.path = nextString(reader);
+                    break;
+                case "path_with_namespace":
+                    project.pathWithNamespace = nextString(reader);
+                    break;
+                case "ssh_url_to_repo":
+                    project.sshUrlToRepo = nextString(reader);
+                    break;
+                case "namespace":
+                    project.namespaceId = readNamespaceId(reader);
+                    break;
+                case "updated_at":
+                    project.updatedAt = nextDate(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return project;
+    }
+
+    private Integer readNamespaceId(JsonReader reader) throws IOException {
+        Integer namespaceId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName())) {
+                namespaceId = nextInteger(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return namespaceId;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabProject project) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(project.id);
+        writer.name("name").value(project.name);
+        writer.name("path").value(project.path);
+        writer.name("path_with_namespace").value(project.pathWithNamespace);
+        writer.name("ssh_url_to_repo").value(project.sshUrlToRepo);
+        writer.name("namespace").beginObject().name("id").value(project.namespaceId).endObject();
+        writer.name("updated_at").value(formatDate(project.updatedAt));
+        writer.endObject();
+    }
+}
@@ -0,0 +1,84 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabProject;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabGraphql.nextGlobalId;
+import static helpers.api.gitlab.json.GitlabGraphql.toGlobalId;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * Adapter of the GraphQL project nodes.
+ *
+ * @author jtremeaux
+ */
+public class GitlabProjectNodeAdapter extends TypeAdapter<GitlabProject> {
+    public static final GitlabProjectNodeAdapter INSTANCE = new GitlabProjectNodeAdapter();
+
+    /**
+     * The fields to query.
+     */
+    public static final String FIELDS = "id name path fullPath sshUrlToRepo namespace { id }";
+
+    @Override
+    public GitlabProject read(JsonReader reader) throws IOException {
+        GitlabProject project = new GitlabProject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    project.id = nextGlobalId(reader);
+                    break;
+                case "name":
+                    project.name = nextString(reader);
+                    break;
+                case "path":
+                    project.path = nextString(reader);
+                    break;
+                case "fullPath":
+                    project.pathWithNamespace = nextString(reader);
+                    break;
+                case "sshUrlToRepo":
+                    project.sshUrlToRepo = nextString(reader);
+                    break;
+                case "namespace":
+                    project.namespaceId = readNamespaceId(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return project;
+    }
+
+    private Integer readNamespaceId(JsonReader reader) throws IOException {
+        Integer namespaceId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName())) {
+                namespaceId = nextGlobalId(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return namespaceId;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabProject project) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(toGlobalId("Project", project.id));
+        writer.name("name").value(project.name);
+        writer.name("path").value(project.path);
+        writer.name("fullPath").value(project.pathWithNamespace);
+        writer.name("sshUrlToRepo").value(project.sshUrlToRepo);
+        writer.name("namespace").beginObject().name("id").value(toGlobalId("Group", project.namespaceId)).endObject();
+        writer.endObject();
+    }
+}
@@ -0,0 +1,56 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabUser;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabJson.formatDate;
+import static helpers.api.gitlab.json.GitlabJson.nextDate;
+import static helpers.api.gitlab.json.GitlabJson.nextInteger;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabUserAdapter extends TypeAdapter<GitlabUser> {
+    public static final GitlabUserAdapter INSTANCE = new GitlabUserAdapter();
+
+    @Override
+    public GitlabUser read(JsonReader reader) throws IOException {
+        GitlabUser user = new GitlabUser();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    user.id = nextInteger(reader);
+                    break;
+                case "username":
+                    user.username = nextString(reader);
+                    break;
+                case "name":
+                    user.name = nextString(reader);
+                    break;
+                case "updated_at":
+                    user.updatedAt = nextDate(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return user;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabUser user) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(user.id);
+        writer.name("username").value(user.username);
+        writer.name("name").value(user.name);
+        writer.name("updated_at").value(formatDate(user.updatedAt));
+        writer.endObject();
+    }
+}
@@ -0,0 +1,58 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabUser;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabGraphql.nextGlobalId;
+import static helpers.api.gitlab.json.GitlabGraphql.toGlobalId;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * Adapter of the GraphQL user nodes.
+ *
+ * @author jtremeaux
+ */
+public class GitlabUserNodeAdapter extends TypeAdapter<GitlabUser> {
+    public static final GitlabUserNodeAdapter INSTANCE = new GitlabUserNodeAdapter();
+
+    /**
+     * The fields to query.
+     */
+    public static final String FIELDS = "id username name";
+
+    @Override
+    public GitlabUser read(JsonReader reader) throws IOException {
+        GitlabUser user = new GitlabUser();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    user.id = nextGlobalId(reader);
+                    break;
+                case "username":
+                    user.username = nextString(reader);
+                    break;
+                case "name":
+                    user.name = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return user;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabUser user) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(toGlobalId("User", user.id));
+        writer.name("username").value(user.username);
+        writer.name("name").value(user.name);
+        writer.endObject();
+    }
+}
@@ -0,0 +1,50 @@
+package helpers.api.gitlab.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import helpers.api.gitlab.model.GitlabVariable;
+
+import java.io.IOException;
+
+import static helpers.api.gitlab.json.GitlabJson.nextBoolean;
+import static helpers.api.gitlab.json.GitlabJson.nextString;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabVariableAdapter extends TypeAdapter<GitlabVariable> {
+    public static final GitlabVariableAdapter INSTANCE = new GitlabVariableAdapter();
+
+    @Override
+    public GitlabVariable read(JsonReader reader) throws IOException {
+        GitlabVariable variable = new GitlabVariable();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "key":
+                    variable.key = nextString(reader);
+                    break;
+                case "value":
+                    variable.value = nextString(reader);
+                    break;
+                case "protected":
+                    variable.variableProtected = nextBoolean(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return variable;
+    }
+
+    @Override
+    public void write(JsonWriter writer, GitlabVariable variable) throws IOException {
+        writer.beginObject();
+        writer.name("key").value(variable.key);
+        writer.name("value").value(variable.value);
+        writer.name("protected").value(variable.variableProtected);
+        writer.endObject();
+    }
+}
@@ -0,0 +1,105 @@
+package helpers.api.gitlab.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets.
+ * Each power of 2 is divided in 8 buckets, so percentiles are accurate to about 9%, from 10 microseconds to about 3 hours.
+ *
+ * @author jtremeaux
+ */
+public class GitlabHistogram {
+    private static final int SUB_BUCKETS = 8;
+
+    private static final long MIN_VALUE = 10;
+
+    private static final int BUCKET_COUNT = 30 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param value The value, in microseconds
+     */
+    public void record(long value) {
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toMicros(duration));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean value.
+     *
+     * @return The mean, in microseconds
+     */
+    public long getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : sum.get() / count;
+    }
+
+    /**
+     * Returns the max value.
+     *
+     * @return The max, in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns a percentile.
+     *
+     * @param percentile The percentile (e.g. 99.0)
+     * @return The upper bound of the bucket containing the percentile, in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long cumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int getBucket(long value) {
+        if (value < MIN_VALUE) {
+            return 0;
+        }
+        double log = Math.log((double) value / MIN_VALUE) / Math.log(2);
+        return (int) Math.min(BUCKET_COUNT - 1, Math.floor(log * SUB_BUCKETS) + 1);
+    }
+
+    private static long getUpperBound(int bucket) {
+        return (long) Math.ceil(MIN_VALUE * Math.pow(2, (double) bucket / SUB_BUCKETS));
+    }
+}
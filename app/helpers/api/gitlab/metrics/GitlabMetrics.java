@@ -0,0 +1,125 @@
+package helpers.api.gitlab.metrics;
+
+import helpers.api.gitlab.GitlabCall;
+import helpers.api.gitlab.GitlabCircuitBreaker;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency and throughput of the Gitlab calls, per logical operation.
+ * The latency is measured until the response headers are received, retries and rate limiting included.
+ *
+ * @author jtremeaux
+ */
+public class GitlabMetrics implements Interceptor {
+    private final String instance;
+
+    private final Map<String, GitlabOperationMetrics> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param instance The name of the Gitlab instance
+     */
+    public GitlabMetrics(String instance) {
+        this.instance = instance;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        GitlabOperationMetrics metrics = getOperationMetrics(request);
+        metrics.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            metrics.requests.increment();
+            if (chain.call().isCanceled()) {
+                // Not an error, e.g. the losing call of a hedged request
+                throw e;
+            }
+            metrics.errors.increment();
+            metrics.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        } finally {
+            metrics.inFlight.decrementAndGet();
+        }
+        metrics.requests.increment();
+        if (!response.isSuccessful()) {
+            metrics.errors.increment();
+        }
+        metrics.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(new ForwardingSource(body.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read > 0) {
+                            metrics.bytes.add(read);
+                        }
+                        return read;
+                    }
+                })))
+                .build();
+    }
+
+    /**
+     * Record a retry of a request.
+     *
+     * @param request The request
+     */
+    public void recordRetry(Request request) {
+        getOperationMetrics(request).retries.increment();
+    }
+
+    /**
+     * Returns the metrics of an operation, creating them if necessary.
+     *
+     * @param operation The operation name
+     * @return The metrics
+     */
+    public GitlabOperationMetrics getOperationMetrics(String operation) {
+        return operations.computeIfAbsent(operation, key -> new GitlabOperationMetrics());
+    }
+
+    /**
+     * Returns the metrics of the operation of a request, creating them if necessary.
+     *
+     * @param request The request
+     * @return The metrics
+     */
+    public GitlabOperationMetrics getOperationMetrics(Request request) {
+        String operation = GitlabCall.getOperation(request);
+        return getOperationMetrics(operation != null ? operation : GitlabCircuitBreaker.getEndpoint(request));
+    }
+
+    /**
+     * Returns a snapshot of the metrics of all the operations.
+     *
+     * @return The snapshots, sorted by operation name
+     */
+    public List<GitlabOperationSnapshot> getSnapshots() {
+        List<GitlabOperationSnapshot> snapshots = new ArrayList<>();
+        operations.forEach((operation, metrics) -> snapshots.add(metrics.toSnapshot(instance, operation)));
+        snapshots.sort((snapshot1, snapshot2) -> snapshot1.operation.compareTo(snapshot2.operation));
+        return snapshots;
+    }
+}
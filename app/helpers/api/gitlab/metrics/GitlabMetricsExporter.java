@@ -0,0 +1,18 @@
+package helpers.api.gitlab.metrics;
+
+import java.util.List;
+
+/**
+ * Exports the Gitlab metrics to a monitoring system.
+ * The implementation is set with gitlab.metrics.exporter, and called every gitlab.metrics.exportInterval.
+ *
+ * @author jtremeaux
+ */
+public interface GitlabMetricsExporter {
+    /**
+     * Export the metrics.
+     *
+     * @param snapshots The metrics of each operation of each Gitlab instance
+     */
+    void export(List<GitlabOperationSnapshot> snapshots);
+}
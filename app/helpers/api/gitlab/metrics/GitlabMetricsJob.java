@@ -0,0 +1,35 @@
+package helpers.api.gitlab.metrics;
+
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.GitlabClientRegistry;
+import play.Logger;
+import play.jobs.Job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports the Gitlab metrics of all the instances periodically.
+ *
+ * @author jtremeaux
+ */
+public class GitlabMetricsJob extends Job<Void> {
+    private final GitlabMetricsExporter exporter;
+
+    public GitlabMetricsJob(GitlabMetricsExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @Override
+    public void doJob() {
+        try {
+            List<GitlabOperationSnapshot> snapshots = new ArrayList<>();
+            for (GitlabClient gitlabClient : GitlabClientRegistry.getClients()) {
+                snapshots.addAll(gitlabClient.getMetrics().getSnapshots());
+            }
+            exporter.export(snapshots);
+        } catch (Exception e) {
+            Logger.error(e, "Error exporting the Gitlab metrics");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package helpers.api.gitlab.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a logical Gitlab operation.
+ *
+ * @author jtremeaux
+ */
+public class GitlabOperationMetrics {
+    final LongAdder requests = new LongAdder();
+
+    final LongAdder errors = new LongAdder();
+
+    final LongAdder retries = new LongAdder();
+
+    final LongAdder bytes = new LongAdder();
+
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    final GitlabHistogram latency = new GitlabHistogram();
+
+    public GitlabHistogram getLatency() {
+        return latency;
+    }
+
+    GitlabOperationSnapshot toSnapshot(String instance, String operation) {
+        GitlabOperationSnapshot snapshot = new GitlabOperationSnapshot();
+        snapshot.instance = instance;
+        snapshot.operation = operation;
+        snapshot.requests = requests.sum();
+        snapshot.errors = errors.sum();
+        snapshot.retries = retries.sum();
+        snapshot.bytes = bytes.sum();
+        snapshot.inFlight = inFlight.get();
+        snapshot.mean = latency.getMean();
+        snapshot.p50 = latency.getPercentile(50);
+        snapshot.p95 = latency.getPercentile(95);
+        snapshot.p99 = latency.getPercentile(99);
+        snapshot.max = latency.getMax();
+        return snapshot;
+    }
+}
@@ -0,0 +1,36 @@
+package helpers.api.gitlab.metrics;
+
+/**
+ * Metrics of a logical Gitlab operation at a point in time.
+ * Counts are cumulated since the application start, latencies are in microseconds.
+ *
+ * @author jtremeaux
+ */
+public class GitlabOperationSnapshot {
+    /**
+     * Name of the Gitlab instance (see GitlabClientRegistry).
+     */
+    public String instance;
+
+    public String operation;
+
+    public long requests;
+
+    public long errors;
+
+    public long retries;
+
+    public long bytes;
+
+    public int inFlight;
+
+    public long mean;
+
+    public long p50;
+
+    public long p95;
+
+    public long p99;
+
+    public long max;
+}
@@ -0,0 +1,18 @@
+package helpers.api.gitlab.model;
+
+import java.util.Date;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabGroup {
+    public Integer id;
+
+    public String name;
+
+    public String path;
+
+    public String fullPath;
+
+    public Date updatedAt;
+}
@@ -0,0 +1,37 @@
+package helpers.api.gitlab.model;
+
+/**
+ * An event received from a Gitlab system hook, group hook or project hook.
+ * Only the fields used to update the cached state are kept.
+ *
+ * @author jtremeaux
+ */
+public class GitlabHookEvent {
+    /**
+     * The event name of the system and member events (e.g. "project_create", "user_add_to_group").
+     */
+    public String eventName;
+
+    /**
+     * The object kind of the project hook events (e.g. "push", "merge_request").
+     */
+    public String objectKind;
+
+    public Integer projectId;
+
+    public Integer groupId;
+
+    public Integer userId;
+
+    public String name;
+
+    public String path;
+
+    public String fullPath;
+
+    public String pathWithNamespace;
+
+    public String username;
+
+    public Integer accessLevel;
+}
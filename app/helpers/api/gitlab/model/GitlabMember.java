@@ -0,0 +1,12 @@
+package helpers.api.gitlab.model;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabMember {
+    public Integer id;
+
+    public String username;
+
+    public Integer accessLevel;
+}
@@ -0,0 +1,31 @@
+package helpers.api.gitlab.model;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Report of a group members sync.
+ *
+ * @author jtremeaux
+ */
+public class GitlabMemberSyncReport {
+    public Integer groupId;
+
+    public List<GitlabMemberSyncResult> results;
+
+    public boolean isSuccess() {
+        return results.stream().allMatch(GitlabMemberSyncResult::isSuccess);
+    }
+
+    public List<GitlabMemberSyncResult> getResults(GitlabMemberSyncResult.Action action) {
+        return results.stream()
+                .filter(result -> result.action == action)
+                .collect(Collectors.toList());
+    }
+
+    public List<GitlabMemberSyncResult> getFailures() {
+        return results.stream()
+                .filter(result -> !result.isSuccess())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,37 @@
+package helpers.api.gitlab.model;
+
+/**
+ * Result of the sync of one group member.
+ *
+ * @author jtremeaux
+ */
+public class GitlabMemberSyncResult {
+    public enum Action {
+        ADD,
+        UPDATE,
+        REMOVE,
+        UNCHANGED
+    }
+
+    public Integer userId;
+
+    /**
+     * The username, null for the added members.
+     */
+    public String username;
+
+    public Action action;
+
+    public Integer previousAccessLevel;
+
+    public Integer accessLevel;
+
+    /**
+     * The error message, null if the change succeeded.
+     */
+    public String error;
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -1,8 +1,22 @@
 package helpers.api.gitlab.model;
 
+import java.util.Date;
+
 /**
  * @author jtremeaux
  */
 public class GitlabProject {
+    public Integer id;
+
+    public String name;
+
+    public String path;
+
+    public String pathWithNamespace;
+
+    public Integer namespaceId;
+
     public String sshUrlToRepo;
+
+    public Date updatedAt;
 }
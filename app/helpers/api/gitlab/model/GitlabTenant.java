@@ -0,0 +1,22 @@
+package helpers.api.gitlab.model;
+
+import java.util.Map;
+
+/**
+ * A provisioned tenant.
+ *
+ * @author jtremeaux
+ */
+public class GitlabTenant {
+    public Integer groupId;
+
+    /**
+     * The user IDs, by username.
+     */
+    public Map<String, Integer> userIds;
+
+    /**
+     * The project IDs, by path.
+     */
+    public Map<String, Integer> projectIds;
+}
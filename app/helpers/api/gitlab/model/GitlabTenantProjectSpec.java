@@ -0,0 +1,28 @@
+package helpers.api.gitlab.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A project to create in the group of a tenant, with its variables.
+ *
+ * @author jtremeaux
+ */
+public class GitlabTenantProjectSpec {
+    public String name;
+
+    public String path;
+
+    /**
+     * The variables, by key.
+     */
+    public Map<String, GitlabVariableSpec> variables = new LinkedHashMap<>();
+
+    public GitlabTenantProjectSpec() {
+    }
+
+    public GitlabTenantProjectSpec(String name, String path) {
+        this.name = name;
+        this.path = path;
+    }
+}
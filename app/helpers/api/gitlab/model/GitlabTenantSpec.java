@@ -0,0 +1,35 @@
+package helpers.api.gitlab.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Desired state of a tenant: a group, its members and its projects.
+ *
+ * @author jtremeaux
+ */
+public class GitlabTenantSpec {
+    public String groupName;
+
+    public String groupPath;
+
+    /**
+     * The users to create and add to the group.
+     */
+    public List<GitlabTenantUserSpec> users = new ArrayList<>();
+
+    /**
+     * The access level of the users in the group.
+     */
+    public int accessLevel = 40;
+
+    public List<GitlabTenantProjectSpec> projects = new ArrayList<>();
+
+    public GitlabTenantSpec() {
+    }
+
+    public GitlabTenantSpec(String groupName, String groupPath) {
+        this.groupName = groupName;
+        this.groupPath = groupPath;
+    }
+}
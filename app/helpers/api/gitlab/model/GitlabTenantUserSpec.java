@@ -0,0 +1,26 @@
+package helpers.api.gitlab.model;
+
+/**
+ * A user to create for a tenant.
+ *
+ * @author jtremeaux
+ */
+public class GitlabTenantUserSpec {
+    public String email;
+
+    public String username;
+
+    public String name;
+
+    public String password;
+
+    public GitlabTenantUserSpec() {
+    }
+
+    public GitlabTenantUserSpec(String email, String username, String name, String password) {
+        this.email = email;
+        this.username = username;
+        this.name = name;
+        this.password = password;
+    }
+}
@@ -0,0 +1,16 @@
+package helpers.api.gitlab.model;
+
+import java.util.Date;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabUser {
+    public Integer id;
+
+    public String username;
+
+    public String name;
+
+    public Date updatedAt;
+}
@@ -0,0 +1,12 @@
+package helpers.api.gitlab.model;
+
+/**
+ * @author jtremeaux
+ */
+public class GitlabVariable {
+    public String key;
+
+    public String value;
+
+    public boolean variableProtected;
+}
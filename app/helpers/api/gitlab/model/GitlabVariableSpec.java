@@ -0,0 +1,20 @@
+package helpers.api.gitlab.model;
+
+/**
+ * Desired state of a project variable.
+ *
+ * @author jtremeaux
+ */
+public class GitlabVariableSpec {
+    public String value;
+
+    public boolean variableProtected;
+
+    public GitlabVariableSpec() {
+    }
+
+    public GitlabVariableSpec(String value, boolean variableProtected) {
+        this.value = value;
+        this.variableProtected = variableProtected;
+    }
+}
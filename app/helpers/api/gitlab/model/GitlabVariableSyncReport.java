@@ -0,0 +1,31 @@
+package helpers.api.gitlab.model;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Report of a project variables sync.
+ *
+ * @author jtremeaux
+ */
+public class GitlabVariableSyncReport {
+    public Integer projectId;
+
+    public List<GitlabVariableSyncResult> results;
+
+    public boolean isSuccess() {
+        return results.stream().allMatch(GitlabVariableSyncResult::isSuccess);
+    }
+
+    public List<GitlabVariableSyncResult> getResults(GitlabVariableSyncResult.Action action) {
+        return results.stream()
+                .filter(result -> result.action == action)
+                .collect(Collectors.toList());
+    }
+
+    public List<GitlabVariableSyncResult> getFailures() {
+        return results.stream()
+                .filter(result -> !result.isSuccess())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,28 @@
+package helpers.api.gitlab.model;
+
+/**
+ * Result of the sync of one project variable.
+ *
+ * @author jtremeaux
+ */
+public class GitlabVariableSyncResult {
+    public enum Action {
+        CREATE,
+        UPDATE,
+        DELETE,
+        UNCHANGED
+    }
+
+    public String key;
+
+    public Action action;
+
+    /**
+     * The error message, null if the change succeeded.
+     */
+    public String error;
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,151 @@
+package helpers.api.gitlab.queue;
+
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.GitlabResponseException;
+
+import java.util.Map;
+
+/**
+ * The Gitlab mutations that can be queued, each executed through the matching service method.
+ * An operation may be executed again after a crash or a timeout while its previous attempt had succeeded,
+ * so the mutations are idempotent: deleting a missing entity succeeds, and creating an existing one updates it.
+ *
+ * @author jtremeaux
+ */
+public enum GitlabBulkAction {
+    PROJECT_UPDATE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            gitlabClient.getProjectService().updateProject(getId(params, "id"), params.get("name"));
+        }
+    },
+
+    PROJECT_DELETE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            ignoreNotFound(() -> gitlabClient.getProjectService().deleteProject(getId(params, "id")));
+        }
+    },
+
+    VARIABLE_CREATE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            try {
+                gitlabClient.getProjectService().createVariable(getId(params, "projectId"), params.get("key"), params.get("value"), Boolean.parseBoolean(params.get("protected")));
+            } catch (RuntimeException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                VARIABLE_UPDATE.execute(gitlabClient, params);
+            }
+        }
+    },
+
+    VARIABLE_UPDATE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            gitlabClient.getProjectService().updateVariable(getId(params, "projectId"), params.get("key"), params.get("value"), Boolean.parseBoolean(params.get("protected")));
+        }
+    },
+
+    VARIABLE_DELETE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            ignoreNotFound(() -> gitlabClient.getProjectService().deleteVariable(getId(params, "projectId"), params.get("key")));
+        }
+    },
+
+    GROUP_UPDATE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            gitlabClient.getGroupService().updateGroup(getId(params, "id"), params.get("name"));
+        }
+    },
+
+    GROUP_DELETE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            ignoreNotFound(() -> gitlabClient.getGroupService().deleteGroup(getId(params, "id")));
+        }
+    },
+
+    GROUP_MEMBER_CREATE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            try {
+                gitlabClient.getGroupService().createGroupUser(getId(params, "groupId"), getId(params, "userId"), getId(params, "accessLevel"));
+            } catch (RuntimeException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+                GROUP_MEMBER_UPDATE.execute(gitlabClient, params);
+            }
+        }
+    },
+
+    GROUP_MEMBER_UPDATE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            gitlabClient.getGroupService().updateGroupUser(getId(params, "groupId"), getId(params, "userId"), getId(params, "accessLevel"));
+        }
+    },
+
+    GROUP_MEMBER_DELETE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            ignoreNotFound(() -> gitlabClient.getGroupService().deleteGroupUser(getId(params, "groupId"), getId(params, "userId")));
+        }
+    },
+
+    USER_DELETE {
+        @Override
+        void execute(GitlabClient gitlabClient, Map<String, String> params) {
+            ignoreNotFound(() -> gitlabClient.getUserService().deleteUser(getId(params, "id")));
+        }
+    };
+
+    /**
+     * Execute the mutation, blocking until it completes.
+     *
+     * @param gitlabClient The client
+     * @param params The parameters of the mutation
+     */
+    abstract void execute(GitlabClient gitlabClient, Map<String, String> params);
+
+    private static Integer getId(Map<String, String> params, String name) {
+        return Integer.valueOf(params.get(name));
+    }
+
+    /**
+     * Execute a deletion, the entity is already deleted if not found.
+     */
+    private static void ignoreNotFound(Runnable deletion) {
+        try {
+            deletion.run();
+        } catch (RuntimeException e) {
+            GitlabResponseException error = getResponseException(e);
+            if (error == null || error.getCode() != 404) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns true if a creation failed because the entity already exists:
+     * Gitlab answers 409 to an existing member, and 400 to an existing variable key.
+     */
+    private static boolean isConflict(RuntimeException e) {
+        GitlabResponseException error = getResponseException(e);
+        return error != null && (error.getCode() == 409
+                || error.getCode() == 400 && error.getMessage() != null && error.getMessage().contains("has already been taken"));
+    }
+
+    private static GitlabResponseException getResponseException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof GitlabResponseException) {
+                return (GitlabResponseException) cause;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,48 @@
+package helpers.api.gitlab.queue;
+
+/**
+ * An operation of a bulk job, with its execution state.
+ *
+ * @author jtremeaux
+ */
+public class GitlabBulkItem {
+    public enum Status {
+        PENDING,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    final GitlabBulkJob job;
+
+    public final int index;
+
+    public final GitlabBulkOperation operation;
+
+    public volatile Status status = Status.PENDING;
+
+    /**
+     * Number of attempts made so far.
+     */
+    public volatile int attempts;
+
+    /**
+     * The error of the last attempt, if it failed.
+     */
+    public volatile String error;
+
+    /**
+     * Date of the next attempt, in milliseconds (0 for as soon as possible).
+     */
+    volatile long nextAttemptAt;
+
+    GitlabBulkItem(GitlabBulkJob job, int index, GitlabBulkOperation operation) {
+        this.job = job;
+        this.index = index;
+        this.operation = operation;
+    }
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+}
@@ -0,0 +1,87 @@
+package helpers.api.gitlab.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A bulk job: operations submitted together, executed by the queue workers in any order.
+ *
+ * @author jtremeaux
+ */
+public class GitlabBulkJob {
+    public final String id;
+
+    public final long createdAt;
+
+    public final List<GitlabBulkItem> items;
+
+    final AtomicInteger runningCount = new AtomicInteger();
+
+    final AtomicInteger doneCount = new AtomicInteger();
+
+    final AtomicInteger failedCount = new AtomicInteger();
+
+    final AtomicInteger retryCount = new AtomicInteger();
+
+    /**
+     * Date of the first attempt since the job was submitted or resumed.
+     */
+    volatile long startedAt;
+
+    volatile long finishedAt;
+
+    GitlabBulkJob(String id, long createdAt, List<GitlabBulkOperation> operations) {
+        this.id = id;
+        this.createdAt = createdAt;
+        List<GitlabBulkItem> items = new ArrayList<>(operations.size());
+        for (GitlabBulkOperation operation : operations) {
+            items.add(new GitlabBulkItem(this, items.size(), operation));
+        }
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public boolean isFinished() {
+        return doneCount.get() + failedCount.get() == items.size();
+    }
+
+    /**
+     * Returns the items that failed after all their attempts.
+     *
+     * @return The failed items
+     */
+    public List<GitlabBulkItem> getFailures() {
+        return items.stream()
+                .filter(item -> item.status == GitlabBulkItem.Status.FAILED)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the progress of the job.
+     *
+     * @return The progress
+     */
+    public GitlabBulkJobStatus getStatus() {
+        GitlabBulkJobStatus status = new GitlabBulkJobStatus();
+        status.id = id;
+        status.total = items.size();
+        status.running = runningCount.get();
+        status.done = doneCount.get();
+        status.failed = failedCount.get();
+        status.pending = status.total - status.done - status.failed - status.running;
+        status.retries = retryCount.get();
+        status.createdAt = createdAt;
+        status.startedAt = startedAt;
+        status.finishedAt = finishedAt;
+        if (startedAt > 0) {
+            long elapsed = (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+            status.itemsPerSecond = elapsed > 0 ? (status.done + status.failed) * 1000.0 / elapsed : 0;
+            status.etaSeconds = status.itemsPerSecond > 0 ? (long) ((status.pending + status.running) / status.itemsPerSecond) : -1;
+        } else {
+            status.etaSeconds = -1;
+        }
+        return status;
+    }
+}
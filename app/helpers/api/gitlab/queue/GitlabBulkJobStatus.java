@@ -0,0 +1,45 @@
+package helpers.api.gitlab.queue;
+
+/**
+ * Progress of a bulk job.
+ *
+ * @author jtremeaux
+ */
+public class GitlabBulkJobStatus {
+    public String id;
+
+    public int total;
+
+    public int pending;
+
+    public int running;
+
+    public int done;
+
+    public int failed;
+
+    /**
+     * Number of attempts after a failure.
+     */
+    public int retries;
+
+    public long createdAt;
+
+    public long startedAt;
+
+    public long finishedAt;
+
+    /**
+     * Throughput since the job was started (or resumed).
+     */
+    public double itemsPerSecond;
+
+    /**
+     * Estimated time left at the current throughput, -1 if unknown.
+     */
+    public long etaSeconds;
+
+    public boolean isFinished() {
+        return done + failed == total;
+    }
+}
@@ -0,0 +1,200 @@
+package helpers.api.gitlab.queue;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import play.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of the bulk jobs, one JSON record per line: a "job" record with the operations when a job is submitted,
+ * then an "item" record each time an item changes state. The jobs are rebuilt by replaying the records.
+ * A truncated last line (e.g. after a crash) is ignored.
+ *
+ * @author jtremeaux
+ */
+class GitlabBulkJournal {
+    private final File file;
+
+    private Writer writer;
+
+    GitlabBulkJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Replay the journal.
+     *
+     * @return The jobs, in the order of submission
+     */
+    synchronized List<GitlabBulkJob> load() throws IOException {
+        Map<String, GitlabBulkJob> jobs = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    replay(jobs, new JsonParser().parse(line).getAsJsonObject());
+                } catch (RuntimeException e) {
+                    Logger.warn("Ignoring the invalid record at line " + lineNumber + " of the Gitlab bulk journal: " + e.getMessage());
+                }
+            }
+        }
+        return new ArrayList<>(jobs.values());
+    }
+
+    private void replay(Map<String, GitlabBulkJob> jobs, JsonObject record) {
+        String jobId = record.get("job").getAsString();
+        if ("job".equals(record.get("type").getAsString())) {
+            List<GitlabBulkOperation> operations = new ArrayList<>();
+            for (JsonElement element : record.getAsJsonArray("operations")) {
+                JsonObject operationObject = element.getAsJsonObject();
+                GitlabBulkOperation operation = new GitlabBulkOperation(GitlabBulkAction.valueOf(operationObject.get("action").getAsString()));
+                for (Map.Entry<String, JsonElement> param : operationObject.getAsJsonObject("params").entrySet()) {
+                    operation.params.put(param.getKey(), param.getValue().isJsonNull() ? null : param.getValue().getAsString());
+                }
+                operations.add(operation);
+            }
+            jobs.put(jobId, new GitlabBulkJob(jobId, record.get("created").getAsLong(), operations));
+        } else {
+            GitlabBulkJob job = jobs.get(jobId);
+            if (job == null) {
+                return;
+            }
+            GitlabBulkItem item = job.items.get(record.get("index").getAsInt());
+            item.status = GitlabBulkItem.Status.valueOf(record.get("status").getAsString());
+            item.attempts = record.get("attempts").getAsInt();
+            item.error = record.has("error") && !record.get("error").isJsonNull() ? record.get("error").getAsString() : null;
+        }
+    }
+
+    /**
+     * Append the record of a new job.
+     *
+     * @param job The job
+     */
+    synchronized void appendJob(GitlabBulkJob job) throws IOException {
+        write(toJobRecord(job));
+    }
+
+    /**
+     * Append the record of the state of an item.
+     *
+     * @param item The item
+     */
+    synchronized void appendItem(GitlabBulkItem item) throws IOException {
+        write(toItemRecord(item));
+    }
+
+    /**
+     * Rewrite the journal with only the given jobs and the state of their started items.
+     *
+     * @param jobs The jobs to keep
+     */
+    synchronized void compact(Collection<GitlabBulkJob> jobs) throws IOException {
+        close();
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create the directory: " + parent);
+        }
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+            for (GitlabBulkJob job : jobs) {
+                out.write(toJobRecord(job));
+                out.write('\n');
+                for (GitlabBulkItem item : job.items) {
+                    if (item.attempts > 0 || item.status != GitlabBulkItem.Status.PENDING) {
+                        out.write(toItemRecord(item));
+                        out.write('\n');
+                    }
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void write(String record) throws IOException {
+        if (writer == null) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Cannot create the directory: " + parent);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+        writer.write(record);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private static String toJobRecord(GitlabBulkJob job) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("job");
+            writer.name("job").value(job.id);
+            writer.name("created").value(job.createdAt);
+            writer.name("operations").beginArray();
+            for (GitlabBulkItem item : job.items) {
+                writer.beginObject();
+                writer.name("action").value(item.operation.action.name());
+                writer.name("params").beginObject();
+                for (Map.Entry<String, String> param : item.operation.params.entrySet()) {
+                    writer.name(param.getKey()).value(param.getValue());
+                }
+                writer.endObject();
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        return out.toString();
+    }
+
+    private static String toItemRecord(GitlabBulkItem item) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("item");
+            writer.name("job").value(item.job.id);
+            writer.name("index").value(item.index);
+            writer.name("status").value(item.status.name());
+            writer.name("attempts").value(item.attempts);
+            writer.name("error").value(item.error);
+            writer.endObject();
+        }
+        return out.toString();
+    }
+}
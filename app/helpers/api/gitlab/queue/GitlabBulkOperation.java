@@ -0,0 +1,75 @@
+package helpers.api.gitlab.queue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Gitlab mutation to queue: an action and its parameters, as strings so that it can be journaled.
+ * The parameters are required.
+ *
+ * @author jtremeaux
+ */
+public class GitlabBulkOperation {
+    public GitlabBulkAction action;
+
+    public Map<String, String> params = new LinkedHashMap<>();
+
+    public GitlabBulkOperation() {
+    }
+
+    public GitlabBulkOperation(GitlabBulkAction action) {
+        this.action = action;
+    }
+
+    private GitlabBulkOperation param(String name, Object value) {
+        if (value == null) {
+            throw new RuntimeException("Missing parameter of the Gitlab bulk operation " + action + ": " + name);
+        }
+        params.put(name, String.valueOf(value));
+        return this;
+    }
+
+    public static GitlabBulkOperation updateProject(Integer id, String name) {
+        return new GitlabBulkOperation(GitlabBulkAction.PROJECT_UPDATE).param("id", id).param("name", name);
+    }
+
+    public static GitlabBulkOperation deleteProject(Integer id) {
+        return new GitlabBulkOperation(GitlabBulkAction.PROJECT_DELETE).param("id", id);
+    }
+
+    public static GitlabBulkOperation createVariable(Integer projectId, String key, String value, boolean variableProtected) {
+        return new GitlabBulkOperation(GitlabBulkAction.VARIABLE_CREATE).param("projectId", projectId).param("key", key).param("value", value).param("protected", variableProtected);
+    }
+
+    public static GitlabBulkOperation updateVariable(Integer projectId, String key, String value, boolean variableProtected) {
+        return new GitlabBulkOperation(GitlabBulkAction.VARIABLE_UPDATE).param("projectId", projectId).param("key", key).param("value", value).param("protected", variableProtected);
+    }
+
+    public static GitlabBulkOperation deleteVariable(Integer projectId, String key) {
+        return new GitlabBulkOperation(GitlabBulkAction.VARIABLE_DELETE).param("projectId", projectId).param("key", key);
+    }
+
+    public static GitlabBulkOperation updateGroup(Integer id, String name) {
+        return new GitlabBulkOperation(GitlabBulkAction.GROUP_UPDATE).param("id", id).param("name", name);
+    }
+
+    public static GitlabBulkOperation deleteGroup(Integer id) {
+        return new GitlabBulkOperation(GitlabBulkAction.GROUP_DELETE).param("id", id);
+    }
+
+    public static GitlabBulkOperation createGroupUser(Integer groupId, Integer userId, int accessLevel) {
+        return new GitlabBulkOperation(GitlabBulkAction.GROUP_MEMBER_CREATE).param("groupId", groupId).param("userId", userId).param("accessLevel", accessLevel);
+    }
+
+    public static GitlabBulkOperation updateGroupUser(Integer groupId, Integer userId, int accessLevel) {
+        return new GitlabBulkOperation(GitlabBulkAction.GROUP_MEMBER_UPDATE).param("groupId", groupId).param("userId", userId).param("accessLevel", accessLevel);
+    }
+
+    public static GitlabBulkOperation deleteGroupUser(Integer groupId, Integer userId) {
+        return new GitlabBulkOperation(GitlabBulkAction.GROUP_MEMBER_DELETE).param("groupId", groupId).param("userId", userId);
+    }
+
+    public static GitlabBulkOperation deleteUser(Integer id) {
+        return new GitlabBulkOperation(GitlabBulkAction.USER_DELETE).param("id", id);
+    }
+}
@@ -0,0 +1,369 @@
+package helpers.api.gitlab.queue;
+
+import com.sismics.sapparot.exception.ValidationException;
+import helpers.api.gitlab.GitlabCircuitBreaker;
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.GitlabResponseException;
+import play.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable queue of Gitlab mutations.
+ * The operations are submitted by jobs, journaled on disk, and executed by a fixed number of worker threads
+ * owned by the queue (not the Play job pool), at most one call per worker at a time.
+ * An operation failing on a transient error (I/O error, server error, rate limit) is retried later with an exponential backoff,
+ * up to a maximum number of attempts; while the Gitlab circuit is open, the operations are postponed without using their attempts.
+ * An operation failing on a validation or client error fails at once, it would fail again.
+ * The unfinished jobs are resumed on startup from the journal: an operation running when the application stopped is executed again,
+ * the mutations are idempotent (see {@link GitlabBulkAction}).
+ *
+ * @author jtremeaux
+ */
+public class GitlabBulkQueue {
+    private final GitlabClient gitlabClient;
+
+    private final boolean enabled;
+
+    private final GitlabBulkJournal journal;
+
+    private final int concurrency;
+
+    private final int maxAttempts;
+
+    private final long retryDelay;
+
+    private final long maxRetryDelay;
+
+    private final int maxPending;
+
+    private final Map<String, GitlabBulkJob> jobs = new ConcurrentHashMap<>();
+
+    private final DelayQueue<ScheduledItem> queue = new DelayQueue<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Number of unfinished items, queued or running.
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicInteger runningCount = new AtomicInteger();
+
+    /**
+     * Time given to the workers to complete their current operation when the queue is stopped, in seconds.
+     */
+    private static final long STOP_TIMEOUT = 30;
+
+    private volatile boolean running;
+
+    private ExecutorService workers;
+
+    public GitlabBulkQueue(GitlabClient gitlabClient, boolean enabled, File file, int concurrency, int maxAttempts, long retryDelay, long maxRetryDelay, int maxPending) {
+        this.gitlabClient = gitlabClient;
+        this.enabled = enabled;
+        this.journal = new GitlabBulkJournal(file);
+        this.concurrency = Math.max(1, concurrency);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+        this.maxPending = maxPending;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Load the unfinished jobs from the journal, and compact it.
+     */
+    public synchronized void load() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<GitlabBulkJob> unfinishedJobs = new ArrayList<>();
+            for (GitlabBulkJob job : journal.load()) {
+                for (GitlabBulkItem item : job.items) {
+                    if (item.status == GitlabBulkItem.Status.DONE) {
+                        job.doneCount.incrementAndGet();
+                    } else if (item.status == GitlabBulkItem.Status.FAILED) {
+                        job.failedCount.incrementAndGet();
+                    } else {
+                        item.status = GitlabBulkItem.Status.PENDING;
+                    }
+                }
+                if (!job.isFinished()) {
+                    unfinishedJobs.add(job);
+                }
+            }
+            journal.compact(unfinishedJobs);
+            for (GitlabBulkJob job : unfinishedJobs) {
+                jobs.put(job.id, job);
+                enqueue(job);
+                Logger.info("Resuming the Gitlab bulk job " + job.id + ": " + (job.items.size() - job.doneCount.get() - job.failedCount.get()) + " operations left");
+            }
+        } catch (IOException e) {
+            Logger.error(e, "Error loading the Gitlab bulk journal");
+        }
+    }
+
+    /**
+     * Start the workers.
+     */
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "gitlab-queue-" + gitlabClient.getName() + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Stop the workers once their current operation is completed, then close the journal.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                    Logger.warn("The Gitlab bulk queue workers did not stop in " + STOP_TIMEOUT + "s, their operations will be executed again on startup");
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                workers.shutdownNow();
+            }
+            workers = null;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            Logger.error(e, "Error closing the Gitlab bulk journal");
+        }
+    }
+
+    /**
+     * Submit operations to execute. They are journaled before this method returns.
+     *
+     * @param operations The operations
+     * @return The job ID
+     */
+    public synchronized String submit(List<GitlabBulkOperation> operations) {
+        if (!enabled) {
+            throw new RuntimeException("The Gitlab bulk queue is disabled (gitlab.queue.enabled)");
+        }
+        if (pendingCount.get() + operations.size() > maxPending) {
+            throw new RuntimeException("The Gitlab bulk queue is full: " + pendingCount.get() + " operations pending, " + maxPending + " at most");
+        }
+        GitlabBulkJob job = new GitlabBulkJob(UUID.randomUUID().toString(), System.currentTimeMillis(), operations);
+        try {
+            journal.appendJob(job);
+        } catch (IOException e) {
+            throw new RuntimeException("Error journaling the Gitlab bulk job", e);
+        }
+        jobs.put(job.id, job);
+        enqueue(job);
+        return job.id;
+    }
+
+    private void enqueue(GitlabBulkJob job) {
+        for (GitlabBulkItem item : job.items) {
+            if (!item.isFinished()) {
+                pendingCount.incrementAndGet();
+                schedule(item, 0);
+            }
+        }
+    }
+
+    private void schedule(GitlabBulkItem item, long delay) {
+        item.nextAttemptAt = System.currentTimeMillis() + delay;
+        queue.add(new ScheduledItem(item, sequence.incrementAndGet()));
+    }
+
+    /**
+     * Execute the queued operations until the queue is stopped.
+     */
+    private void work() {
+        while (running) {
+            ScheduledItem scheduled;
+            try {
+                scheduled = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (scheduled != null) {
+                process(scheduled.item);
+            }
+        }
+    }
+
+    private void process(GitlabBulkItem item) {
+        GitlabBulkJob job = item.job;
+        if (job.startedAt == 0) {
+            job.startedAt = System.currentTimeMillis();
+        }
+        item.status = GitlabBulkItem.Status.RUNNING;
+        job.runningCount.incrementAndGet();
+        runningCount.incrementAndGet();
+        long delay = -1;
+        try {
+            item.operation.action.execute(gitlabClient, item.operation.params);
+            item.status = GitlabBulkItem.Status.DONE;
+            item.attempts++;
+            item.error = null;
+        } catch (RuntimeException e) {
+            item.error = e.getMessage();
+            if (isCircuitOpen(e)) {
+                // Gitlab is failing: wait without using an attempt
+                delay = retryDelay;
+            } else if (++item.attempts < maxAttempts && isTransient(e)) {
+                delay = Math.min(maxRetryDelay, retryDelay << Math.min(item.attempts - 1, 20));
+            } else {
+                item.status = GitlabBulkItem.Status.FAILED;
+                Logger.warn("Gitlab bulk operation " + job.id + "/" + item.index + " (" + item.operation.action + ") failed after " + item.attempts + " attempt(s): " + item.error);
+            }
+            if (delay >= 0) {
+                item.status = GitlabBulkItem.Status.PENDING;
+                job.retryCount.incrementAndGet();
+            }
+        } finally {
+            job.runningCount.decrementAndGet();
+            runningCount.decrementAndGet();
+        }
+        try {
+            journal.appendItem(item);
+        } catch (IOException e) {
+            Logger.error(e, "Error journaling the Gitlab bulk operation " + job.id + "/" + item.index);
+        }
+        if (delay >= 0) {
+            schedule(item, delay);
+            return;
+        }
+        pendingCount.decrementAndGet();
+        if (item.status == GitlabBulkItem.Status.DONE) {
+            job.doneCount.incrementAndGet();
+        } else {
+            job.failedCount.incrementAndGet();
+        }
+        if (job.isFinished()) {
+            finish(job);
+        }
+    }
+
+    private synchronized void finish(GitlabBulkJob job) {
+        if (job.finishedAt > 0) {
+            return;
+        }
+        job.finishedAt = System.currentTimeMillis();
+        Logger.info("Gitlab bulk job " + job.id + " finished: " + job.doneCount.get() + " done, " + job.failedCount.get() + " failed");
+        if (pendingCount.get() == 0) {
+            // Nothing left to resume: start a new journal
+            try {
+                journal.compact(new ArrayList<>());
+            } catch (IOException e) {
+                Logger.error(e, "Error compacting the Gitlab bulk journal");
+            }
+        }
+    }
+
+    private static boolean isCircuitOpen(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof GitlabCircuitBreaker.CircuitOpenException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the operation may succeed if retried: on an I/O error, a server error or a rate limit.
+     * A validation error or a client error (e.g. 404, 422) would fail again.
+     */
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ValidationException) {
+                return false;
+            }
+            if (cause instanceof GitlabResponseException) {
+                return ((GitlabResponseException) cause).isTransient();
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public GitlabBulkJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Returns the jobs submitted since the application started, and the jobs resumed.
+     *
+     * @return The jobs
+     */
+    public Collection<GitlabBulkJob> getJobs() {
+        return jobs.values();
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public int getRunningCount() {
+        return runningCount.get();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    private static class ScheduledItem implements Delayed {
+        private final GitlabBulkItem item;
+
+        private final long sequence;
+
+        ScheduledItem(GitlabBulkItem item, long sequence) {
+            this.item = item;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(item.nextAttemptAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            ScheduledItem otherItem = (ScheduledItem) other;
+            int result = Long.compare(item.nextAttemptAt, otherItem.item.nextAttemptAt);
+            return result != 0 ? result : Long.compare(sequence, otherItem.sequence);
+        }
+    }
+}
@@ -1,21 +1,44 @@
 package helpers.api.gitlab.service;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import helpers.api.gitlab.GitlabCache;
+import helpers.api.gitlab.GitlabCall;
 import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.json.GitlabGraphql;
+import helpers.api.gitlab.json.GitlabGroupAdapter;
+import helpers.api.gitlab.json.GitlabGroupNodeAdapter;
+import helpers.api.gitlab.json.GitlabJson;
+import helpers.api.gitlab.json.GitlabMemberAdapter;
+import helpers.api.gitlab.model.GitlabGroup;
+import helpers.api.gitlab.model.GitlabMember;
+import helpers.api.gitlab.model.GitlabMemberSyncReport;
+import helpers.api.gitlab.model.GitlabMemberSyncResult;
+import helpers.api.gitlab.model.GitlabProject;
 import okhttp3.FormBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author jtremeaux
  */
 public class GroupGitlabService {
+    private static final String GROUPS_QUERY = "query($ids: [ID!], $first: Int) { groups(ids: $ids, first: $first) { nodes { " + GitlabGroupNodeAdapter.FIELDS + " } } }";
+
+    public static final int MAINTAINER_ACCESS = 40;
+
     public GitlabClient gitlabClient;
 
     public GroupGitlabService(GitlabClient gitlabClient) {
@@ -29,14 +52,75 @@ public class GroupGitlabService {
      * @return Group found
      */
     public boolean getGroupById(Integer id) {
+        return gitlabClient.getCache().get(GitlabCache.GROUP, id, () -> gitlabClient.execute(getGroupByIdCall(id)) != null);
+    }
+
+    /**
+     * Get the group asynchronously.
+     *
+     * @param id The group ID
+     * @return Group found
+     */
+    public CompletableFuture<Boolean> getGroupByIdAsync(Integer id) {
+        return gitlabClient.getCache().getAsync(GitlabCache.GROUP, id, () -> gitlabClient.executeAsync(getGroupByIdCall(id))
+                .thenApply(found -> found != null));
+    }
+
+    private GitlabCall<Boolean> getGroupByIdCall(Integer id) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/groups/" + id))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .get()
                 .build();
-        return gitlabClient.execute(request,
+        return new GitlabCall<>("group.get", request,
                 (response) -> true,
-                null) != null;
+                (response) -> {
+                    // Only a missing group is cached as not found, the other errors are not cached
+                    if (response.code() != 404) {
+                        throw new RuntimeException("Error getting group: " + id + ", response was: " + response.body().string());
+                    }
+                });
+    }
+
+    /**
+     * Find a group in the local index.
+     *
+     * @param id The group ID
+     * @return The group, or null if not indexed (or the index is disabled)
+     */
+    public GitlabGroup findGroupById(Integer id) {
+        return gitlabClient.getIndex().getGroup(id);
+    }
+
+    /**
+     * Find a group by its full path in the local index (case insensitive).
+     *
+     * @param fullPath The group full path
+     * @return The group, or null if not indexed (or the index is disabled)
+     */
+    public GitlabGroup findGroupByPath(String fullPath) {
+        return gitlabClient.getIndex().getGroupByPath(fullPath);
+    }
+
+    /**
+     * Stream all the groups, page by page.
+     * The stream must be closed if it is not fully consumed.
+     *
+     * @return The groups
+     */
+    public Stream<GitlabGroup> streamGroups() {
+        return gitlabClient.stream(getGroupsCall());
+    }
+
+    private GitlabCall<List<GitlabGroup>> getGroupsCall() {
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/groups?all_available=true"))
+                .get()
+                .build();
+        return new GitlabCall<>("group.list", request,
+                (response) -> GitlabJson.readList(response, GitlabGroupAdapter.INSTANCE),
+                (response) -> {
+                    throw new RuntimeException("Error getting groups, response was: " + response.body().string());
+                });
     }
 
     /**
@@ -46,27 +130,53 @@ public class GroupGitlabService {
      * @return The users
      */
     public List<Integer> getGroupMember(Integer groupId) {
+        List<Integer> userIds = gitlabClient.getCache().get(GitlabCache.GROUP_MEMBERS, groupId, () -> {
+            try (Stream<GitlabMember> members = streamGroupMembers(groupId)) {
+                return toUserIds(members);
+            }
+        });
+        return new ArrayList<>(userIds);
+    }
+
+    /**
+     * Get the group users asynchronously.
+     *
+     * @param groupId The group ID
+     * @return The users
+     */
+    public CompletableFuture<List<Integer>> getGroupMemberAsync(Integer groupId) {
+        return gitlabClient.getCache().<List<Integer>>getAsync(GitlabCache.GROUP_MEMBERS, groupId,
+                () -> gitlabClient.collectAsync(getGroupMembersCall(groupId))
+                        .thenApply(members -> toUserIds(members.stream())))
+                .thenApply(ArrayList::new);
+    }
+
+    /**
+     * Stream all the group members, page by page.
+     * The stream must be closed if it is not fully consumed.
+     *
+     * @param groupId The group ID
+     * @return The members
+     */
+    public Stream<GitlabMember> streamGroupMembers(Integer groupId) {
+        return gitlabClient.stream(getGroupMembersCall(groupId));
+    }
+
+    private List<Integer> toUserIds(Stream<GitlabMember> members) {
+        Set<String> ignoredMembers = gitlabClient.getIgnoredMembers();
+        return members
+                .filter(member -> !ignoredMembers.contains(member.username))
+                .map(member -> member.id)
+                .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+    }
+
+    private GitlabCall<List<GitlabMember>> getGroupMembersCall(Integer groupId) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/groups/" + groupId + "/members"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .get()
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    List<Integer> users = new ArrayList<>();
-                    JsonArray members = new JsonParser().parse(response.body().string()).getAsJsonArray();
-                    for (JsonElement json : members) {
-                        JsonObject member = json.getAsJsonObject();
-                        Integer userId = member.get("id").getAsInt();
-                        String userName = member.get("username").getAsString();
-                        Integer access_level = member.get("access_level").getAsInt();
-                        if ("controlplane".equals(userName)) {
-                            continue;
-                        }
-                        users.add(userId);
-                    }
-                    return users;
-                },
+        return new GitlabCall<>("group.members.list", request,
+                (response) -> GitlabJson.readList(response, GitlabMemberAdapter.INSTANCE),
                 (response) -> {
                     throw new RuntimeException("Error getting group users: " + groupId + ", response was: " + response.body().string());
                 });
@@ -80,20 +190,48 @@ public class GroupGitlabService {
      * @return The Gitlab group ID
      */
     public Integer createGroup(String name, String path) {
+        Integer id = gitlabClient.execute(createGroupCall(name, path));
+        gitlabClient.getCache().invalidate(GitlabCache.GROUP, id);
+        indexGroup(id, name, path);
+        return id;
+    }
+
+    /**
+     * Create a new group asynchronously.
+     *
+     * @param name The group name
+     * @param path The group path
+     * @return The Gitlab group ID
+     */
+    public CompletableFuture<Integer> createGroupAsync(String name, String path) {
+        return gitlabClient.executeAsync(createGroupCall(name, path))
+                .thenApply(id -> {
+                    gitlabClient.getCache().invalidate(GitlabCache.GROUP, id);
+                    indexGroup(id, name, path);
+                    return id;
+                });
+    }
+
+    private void indexGroup(Integer id, String name, String path) {
+        GitlabGroup group = new GitlabGroup();
+        group.id = id;
+        group.name = name;
+        group.path = path;
+        group.fullPath = path;
+        gitlabClient.getIndex().putGroup(group);
+    }
+
+    private GitlabCall<Integer> createGroupCall(String name, String path) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/groups"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .post(new FormBody.Builder()
                         .add("name", name)
                         .add("path", path)
                         .add("visibility", "private")
                         .build())
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    JsonObject json = new JsonParser().parse(response.body().string()).getAsJsonObject();
-                    return json.get("id").getAsInt();
-                },
+        return new GitlabCall<>("group.create", request,
+                GitlabJson::readId,
                 (response) -> {
                     throw new RuntimeException("Error creating group: " + path + ", response was: " + response.body().string());
                 });
@@ -103,17 +241,55 @@ public class GroupGitlabService {
      * Update a group.
      *
      * @param name The group name
+     * @deprecated Use {@link #updateGroup(Integer, String)}
      */
+    @Deprecated
     public void updateProject(Integer id, String name) {
+        updateGroup(id, name);
+    }
+
+    /**
+     * Update a group.
+     *
+     * @param name The group name
+     */
+    public void updateGroup(Integer id, String name) {
+        gitlabClient.execute(updateGroupCall(id, name));
+        renameIndexedGroup(id, name);
+    }
+
+    /**
+     * Update a group asynchronously.
+     *
+     * @param name The group name
+     */
+    public CompletableFuture<Void> updateGroupAsync(Integer id, String name) {
+        return gitlabClient.executeAsync(updateGroupCall(id, name))
+                .thenRun(() -> renameIndexedGroup(id, name));
+    }
+
+    private void renameIndexedGroup(Integer id, String name) {
+        GitlabGroup indexed = gitlabClient.getIndex().getGroup(id);
+        if (indexed != null) {
+            GitlabGroup group = new GitlabGroup();
+            group.id = id;
+            group.name = name;
+            group.path = indexed.path;
+            group.fullPath = indexed.fullPath;
+            group.updatedAt = indexed.updatedAt;
+            gitlabClient.getIndex().putGroup(group);
+        }
+    }
+
+    private GitlabCall<Void> updateGroupCall(Integer id, String name) {
         RequestBody formBody = new FormBody.Builder()
                 .add("name", name)
                 .build();
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/groups/" + id))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .put(formBody)
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("group.update", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error updating group: " + id + ", response was: " + response.body().string());
@@ -121,28 +297,158 @@ public class GroupGitlabService {
     }
 
     /**
-     * Add a user to a group.
+     * Delete a group, with its projects.
+     *
+     * @param id The group ID
+     */
+    public void deleteGroup(Integer id) {
+        try {
+            gitlabClient.execute(deleteGroupCall(id));
+            removeIndexedGroup(id);
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.GROUP, id);
+            gitlabClient.getCache().invalidate(GitlabCache.GROUP_MEMBERS, id);
+        }
+    }
+
+    /**
+     * Delete a group, with its projects, asynchronously.
+     *
+     * @param id The group ID
+     */
+    public CompletableFuture<Void> deleteGroupAsync(Integer id) {
+        return gitlabClient.executeAsync(deleteGroupCall(id))
+                .thenRun(() -> removeIndexedGroup(id))
+                .whenComplete((result, e) -> {
+                    gitlabClient.getCache().invalidate(GitlabCache.GROUP, id);
+                    gitlabClient.getCache().invalidate(GitlabCache.GROUP_MEMBERS, id);
+                });
+    }
+
+    private void removeIndexedGroup(Integer id) {
+        for (GitlabProject project : gitlabClient.getIndex().getProjectsByNamespace(id)) {
+            gitlabClient.getIndex().removeProject(project.id);
+            gitlabClient.getCache().invalidate(GitlabCache.PROJECT, project.id);
+            gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, project.id);
+        }
+        gitlabClient.getIndex().removeGroup(id);
+    }
+
+    private GitlabCall<Void> deleteGroupCall(Integer id) {
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/groups/" + id))
+                .delete()
+                .build();
+        return new GitlabCall<>("group.delete", request,
+                null,
+                (response) -> {
+                    throw new RuntimeException("Error deleting group: " + id + ", response was: " + response.body().string());
+                });
+    }
+
+    /**
+     * Add a user to a group as maintainer.
      *
      * @param groupId The group ID
      * @param userId The user ID
      */
     public void createGroupUser(Integer groupId, Integer userId) {
+        createGroupUser(groupId, userId, MAINTAINER_ACCESS);
+    }
+
+    /**
+     * Add a user to a group.
+     *
+     * @param groupId The group ID
+     * @param userId The user ID
+     * @param accessLevel The access level (e.g. 30 for developer)
+     */
+    public void createGroupUser(Integer groupId, Integer userId, int accessLevel) {
+        try {
+            gitlabClient.execute(createGroupUserCall(groupId, userId, accessLevel));
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.GROUP_MEMBERS, groupId);
+        }
+    }
+
+    /**
+     * Add a user to a group as maintainer asynchronously.
+     *
+     * @param groupId The group ID
+     * @param userId The user ID
+     */
+    public CompletableFuture<Void> createGroupUserAsync(Integer groupId, Integer userId) {
+        return createGroupUserAsync(groupId, userId, MAINTAINER_ACCESS);
+    }
+
+    /**
+     * Add a user to a group asynchronously.
+     *
+     * @param groupId The group ID
+     * @param userId The user ID
+     * @param accessLevel The access level (e.g. 30 for developer)
+     */
+    public CompletableFuture<Void> createGroupUserAsync(Integer groupId, Integer userId, int accessLevel) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(createGroupUserCall(groupId, userId, accessLevel)), GitlabCache.GROUP_MEMBERS, groupId);
+    }
+
+    private GitlabCall<Void> createGroupUserCall(Integer groupId, Integer userId, int accessLevel) {
         RequestBody formBody = new FormBody.Builder()
                 .add("user_id", userId.toString())
-                .add("access_level", "40")
+                .add("access_level", Integer.toString(accessLevel))
                 .build();
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/groups/" + groupId + "/members"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .post(formBody)
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("group.members.create", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error adding user: " + userId + " to group: " + groupId + ", response was: " + response.body().string());
                 });
     }
 
+    /**
+     * Update the access level of a group member.
+     *
+     * @param groupId The group ID
+     * @param userId The user ID
+     * @param accessLevel The access level (e.g. 30 for developer)
+     */
+    public void updateGroupUser(Integer groupId, Integer userId, int accessLevel) {
+        try {
+            gitlabClient.execute(updateGroupUserCall(groupId, userId, accessLevel));
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.GROUP_MEMBERS, groupId);
+        }
+    }
+
+    /**
+     * Update the access level of a group member asynchronously.
+     *
+     * @param groupId The group ID
+     * @param userId The user ID
+     * @param accessLevel The access level (e.g. 30 for developer)
+     */
+    public CompletableFuture<Void> updateGroupUserAsync(Integer groupId, Integer userId, int accessLevel) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(updateGroupUserCall(groupId, userId, accessLevel)), GitlabCache.GROUP_MEMBERS, groupId);
+    }
+
+    private GitlabCall<Void> updateGroupUserCall(Integer groupId, Integer userId, int accessLevel) {
+        RequestBody formBody = new FormBody.Builder()
+                .add("access_level", Integer.toString(accessLevel))
+                .build();
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/groups/" + groupId + "/members/" + userId))
+                .put(formBody)
+                .build();
+        return new GitlabCall<>("group.members.update", request,
+                null,
+                (response) -> {
+                    throw new RuntimeException("Error updating user: " + userId + " in group: " + groupId + ", response was: " + response.body().string());
+                });
+    }
+
     /**
      * Remove a user to a group.
      *
@@ -150,15 +456,175 @@ public class GroupGitlabService {
      * @param userId The user ID
      */
     public void deleteGroupUser(Integer groupId, Integer userId) {
+        try {
+            gitlabClient.execute(deleteGroupUserCall(groupId, userId));
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.GROUP_MEMBERS, groupId);
+        }
+    }
+
+    /**
+     * Remove a user to a group asynchronously.
+     *
+     * @param groupId The group ID
+     * @param userId The user ID
+     */
+    public CompletableFuture<Void> deleteGroupUserAsync(Integer groupId, Integer userId) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(deleteGroupUserCall(groupId, userId)), GitlabCache.GROUP_MEMBERS, groupId);
+    }
+
+    private GitlabCall<Void> deleteGroupUserCall(Integer groupId, Integer userId) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/groups/" + groupId + "/members/" + userId))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .delete()
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("group.members.delete", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error deleting user: " + userId + " from group: " + groupId + ", response was: " + response.body().string());
                 });
     }
+
+    /**
+     * Sync the members of a group with a set of users.
+     * The missing users are added, the users not in the set are removed, and the access level of the others is updated if needed.
+     * The members ignored by configuration (gitlab.members.ignore) are left untouched.
+     * The changes are applied concurrently, with at most gitlab.bulk.parallelism calls at once.
+     *
+     * @param groupId The group ID
+     * @param userIds The users who should be members
+     * @param accessLevel The access level of the members
+     * @return The result for each user
+     */
+    public GitlabMemberSyncReport syncMembers(Integer groupId, Collection<Integer> userIds, int accessLevel) {
+        List<GitlabMember> members;
+        try (Stream<GitlabMember> stream = streamGroupMembers(groupId)) {
+            members = stream.collect(Collectors.toList());
+        }
+        return applyMemberSync(groupId, diffMembers(members, userIds, accessLevel), accessLevel).join();
+    }
+
+    /**
+     * Sync the members of a group with a set of users asynchronously.
+     *
+     * @param groupId The group ID
+     * @param userIds The users who should be members
+     * @param accessLevel The access level of the members
+     * @return The result for each user
+     * @see #syncMembers(Integer, Collection, int)
+     */
+    public CompletableFuture<GitlabMemberSyncReport> syncMembersAsync(Integer groupId, Collection<Integer> userIds, int accessLevel) {
+        return gitlabClient.collectAsync(getGroupMembersCall(groupId))
+                .thenCompose(members -> applyMemberSync(groupId, diffMembers(members, userIds, accessLevel), accessLevel));
+    }
+
+    private List<GitlabMemberSyncResult> diffMembers(List<GitlabMember> members, Collection<Integer> userIds, int accessLevel) {
+        Set<String> ignoredMembers = gitlabClient.getIgnoredMembers();
+        Map<Integer, GitlabMember> currentMembers = members.stream()
+                .collect(Collectors.toMap(member -> member.id, Function.identity(), (member1, member2) -> member1));
+        List<GitlabMemberSyncResult> results = new ArrayList<>();
+        Set<Integer> desiredUserIds = new LinkedHashSet<>(userIds);
+        for (Integer userId : desiredUserIds) {
+            GitlabMember member = currentMembers.get(userId);
+            if (member != null && ignoredMembers.contains(member.username)) {
+                continue;
+            }
+            GitlabMemberSyncResult result = new GitlabMemberSyncResult();
+            result.userId = userId;
+            result.accessLevel = accessLevel;
+            if (member == null) {
+                result.action = GitlabMemberSyncResult.Action.ADD;
+            } else {
+                result.username = member.username;
+                result.previousAccessLevel = member.accessLevel;
+                result.action = member.accessLevel != null && member.accessLevel == accessLevel ?
+                        GitlabMemberSyncResult.Action.UNCHANGED : GitlabMemberSyncResult.Action.UPDATE;
+            }
+            results.add(result);
+        }
+        for (GitlabMember member : currentMembers.values()) {
+            if (!desiredUserIds.contains(member.id) && !ignoredMembers.contains(member.username)) {
+                GitlabMemberSyncResult result = new GitlabMemberSyncResult();
+                result.userId = member.id;
+                result.username = member.username;
+                result.previousAccessLevel = member.accessLevel;
+                result.action = GitlabMemberSyncResult.Action.REMOVE;
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private CompletableFuture<GitlabMemberSyncReport> applyMemberSync(Integer groupId, List<GitlabMemberSyncResult> results, int accessLevel) {
+        List<GitlabMemberSyncResult> changes = results.stream()
+                .filter(result -> result.action != GitlabMemberSyncResult.Action.UNCHANGED)
+                .collect(Collectors.toList());
+        return gitlabClient.forEachAsync(changes, gitlabClient.getBulkParallelism(), result -> {
+                    CompletableFuture<Void> future;
+                    switch (result.action) {
+                        case ADD:
+                            future = gitlabClient.executeAsync(createGroupUserCall(groupId, result.userId, accessLevel));
+                            break;
+                        case UPDATE:
+                            future = gitlabClient.executeAsync(updateGroupUserCall(groupId, result.userId, accessLevel));
+                            break;
+                        default:
+                            future = gitlabClient.executeAsync(deleteGroupUserCall(groupId, result.userId));
+                    }
+                    return future.whenComplete((v, e) -> {
+                        if (e != null) {
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                            result.error = cause.getMessage();
+                        }
+                    });
+                })
+                .handle((v, e) -> {
+                    gitlabClient.getCache().invalidate(GitlabCache.GROUP_MEMBERS, groupId);
+                    GitlabMemberSyncReport report = new GitlabMemberSyncReport();
+                    report.groupId = groupId;
+                    report.results = results;
+                    return report;
+                });
+    }
+
+    /**
+     * Get groups by ID, with one GraphQL query per batch of IDs (gitlab.graphql.batchSize).
+     *
+     * @param ids The group IDs
+     * @return The groups found, by ID
+     */
+    public Map<Integer, GitlabGroup> getGroupsByIds(Collection<Integer> ids) {
+        return gitlabClient.fetchByIds(ids, this::getGroupsByIdsCall);
+    }
+
+    /**
+     * Get groups by ID asynchronously, with one GraphQL query per batch of IDs (gitlab.graphql.batchSize).
+     *
+     * @param ids The group IDs
+     * @return The groups found, by ID
+     */
+    public CompletableFuture<Map<Integer, GitlabGroup>> getGroupsByIdsAsync(Collection<Integer> ids) {
+        return gitlabClient.fetchByIdsAsync(ids, this::getGroupsByIdsCall);
+    }
+
+    private GitlabCall<Map<Integer, GitlabGroup>> getGroupsByIdsCall(List<Integer> ids) {
+        // Not cached if invalidated during the query: the result may predate the write
+        Map<Integer, Long> generations = gitlabClient.getCache().getGenerations(GitlabCache.GROUP, ids);
+        Request request = new Request.Builder()
+                .url(gitlabClient.getGraphqlUrl())
+                .post(GitlabGraphql.newIdsQuery(GROUPS_QUERY, "Group", ids))
+                .build();
+        return new GitlabCall<>("group.getByIds", request,
+                (response) -> {
+                    Map<Integer, GitlabGroup> groups = new HashMap<>();
+                    for (GitlabGroup group : GitlabGraphql.readNodes(response, "groups", GitlabGroupNodeAdapter.INSTANCE)) {
+                        groups.put(group.id, group);
+                        gitlabClient.getCache().put(GitlabCache.GROUP, group.id, true, generations.getOrDefault(group.id, -1L));
+                    }
+                    return groups;
+                },
+                (response) -> {
+                    throw new RuntimeException("Error getting groups: " + ids + ", response was: " + response.body().string());
+                });
+    }
 }
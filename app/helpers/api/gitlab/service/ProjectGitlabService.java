@@ -1,22 +1,46 @@
 package helpers.api.gitlab.service;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import helpers.api.gitlab.GitlabCache;
+import helpers.api.gitlab.GitlabCall;
 import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.GitlabProgressListener;
+import helpers.api.gitlab.json.GitlabGraphql;
+import helpers.api.gitlab.json.GitlabJson;
+import helpers.api.gitlab.json.GitlabProjectAdapter;
+import helpers.api.gitlab.json.GitlabProjectNodeAdapter;
+import helpers.api.gitlab.json.GitlabVariableAdapter;
 import helpers.api.gitlab.model.GitlabProject;
+import helpers.api.gitlab.model.GitlabVariable;
+import helpers.api.gitlab.model.GitlabVariableSpec;
+import helpers.api.gitlab.model.GitlabVariableSyncReport;
+import helpers.api.gitlab.model.GitlabVariableSyncResult;
 import okhttp3.FormBody;
+import okhttp3.HttpUrl;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author jtremeaux
  */
 public class ProjectGitlabService {
+    private static final String PROJECTS_QUERY = "query($ids: [ID!], $first: Int) { projects(ids: $ids, first: $first) { nodes { " + GitlabProjectNodeAdapter.FIELDS + " } } }";
+
     public GitlabClient gitlabClient;
 
     public ProjectGitlabService(GitlabClient gitlabClient) {
@@ -30,23 +54,98 @@ public class ProjectGitlabService {
      * @return Project found
      */
     public GitlabProject getProjectById(Integer id) {
+        return gitlabClient.getCache().get(GitlabCache.PROJECT, id, () -> gitlabClient.execute(getProjectByIdCall(id)));
+    }
+
+    /**
+     * Get the project asynchronously.
+     *
+     * @param id The project ID
+     * @return Project found
+     */
+    public CompletableFuture<GitlabProject> getProjectByIdAsync(Integer id) {
+        return gitlabClient.getCache().getAsync(GitlabCache.PROJECT, id, () -> gitlabClient.executeAsync(getProjectByIdCall(id)));
+    }
+
+    private GitlabCall<GitlabProject> getProjectByIdCall(Integer id) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects/" + id))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .get()
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    JsonObject json = new JsonParser().parse(response.body().string()).getAsJsonObject();
-                    GitlabProject gitlabProject = new GitlabProject();
-                    gitlabProject.sshUrlToRepo = json.get("ssh_url_to_repo").getAsString();
-                    return gitlabProject;
-                },
+        return new GitlabCall<>("project.get", request,
+                (response) -> GitlabJson.read(response, GitlabProjectAdapter.INSTANCE),
                 (response) -> {
                     throw new RuntimeException("Error getting project: " + id + ", response was: " + response.body().string());
                 });
     }
 
+    /**
+     * Fetch the project from Gitlab, bypassing the cache and the index, then store it in both.
+     *
+     * @param id The project ID
+     * @return The project
+     */
+    public GitlabProject refreshProject(Integer id) {
+        gitlabClient.getCache().invalidate(GitlabCache.PROJECT, id);
+        long generation = gitlabClient.getCache().getGeneration(GitlabCache.PROJECT, id);
+        GitlabProject project = gitlabClient.execute(getProjectByIdCall(id));
+        gitlabClient.getCache().put(GitlabCache.PROJECT, id, project, generation);
+        if (project != null) {
+            gitlabClient.getIndex().putProject(project);
+        }
+        return project;
+    }
+
+    /**
+     * Find a project in the local index.
+     *
+     * @param id The project ID
+     * @return The project, or null if not indexed (or the index is disabled)
+     */
+    public GitlabProject findProjectById(Integer id) {
+        return gitlabClient.getIndex().getProject(id);
+    }
+
+    /**
+     * Find a project by its path with namespace in the local index (case insensitive).
+     *
+     * @param pathWithNamespace The project path with namespace (e.g. "group/project")
+     * @return The project, or null if not indexed (or the index is disabled)
+     */
+    public GitlabProject findProjectByPath(String pathWithNamespace) {
+        return gitlabClient.getIndex().getProjectByPath(pathWithNamespace);
+    }
+
+    /**
+     * Stream the projects, most recently updated first.
+     * The stream must be closed if it is not fully consumed.
+     *
+     * @param updatedAfter Only the projects updated after this date, or null for all the projects
+     * @return The projects
+     */
+    public Stream<GitlabProject> streamProjectsByUpdateDate(Date updatedAfter) {
+        return gitlabClient.stream(getProjectsCall(updatedAfter));
+    }
+
+    private GitlabCall<List<GitlabProject>> getProjectsCall(Date updatedAfter) {
+        HttpUrl.Builder url = gitlabClient.getBaseUrl().newBuilder()
+                .addPathSegment("projects")
+                .addQueryParameter("order_by", "updated_at")
+                .addQueryParameter("sort", "desc");
+        if (updatedAfter != null) {
+            url.addQueryParameter("updated_after", GitlabJson.formatDate(updatedAfter));
+        }
+        Request request = new Request.Builder()
+                .url(url.build())
+                .get()
+                .build();
+        return new GitlabCall<>("project.list", request,
+                (response) -> GitlabJson.readList(response, GitlabProjectAdapter.INSTANCE),
+                (response) -> {
+                    throw new RuntimeException("Error getting projects, response was: " + response.body().string());
+                });
+    }
+
     /**
      * Create a new project.
      *
@@ -56,9 +155,39 @@ public class ProjectGitlabService {
      * @return The Gitlab project ID
      */
     public Integer createProject(String name, String path, Integer namespaceId) {
+        GitlabProject project = gitlabClient.execute(createProjectCall(name, path, namespaceId));
+        storeCreatedProject(project);
+        return project.id;
+    }
+
+    /**
+     * Create a new project asynchronously.
+     *
+     * @param name The project name
+     * @param path The project path
+     * @param namespaceId The Gitlab namespace ID (= group ID)
+     * @return The Gitlab project ID
+     */
+    public CompletableFuture<Integer> createProjectAsync(String name, String path, Integer namespaceId) {
+        return gitlabClient.executeAsync(createProjectCall(name, path, namespaceId))
+                .thenApply(project -> {
+                    storeCreatedProject(project);
+                    return project.id;
+                });
+    }
+
+    /**
+     * Gitlab returns the whole project on creation: it is stored in the cache and in the index.
+     */
+    private void storeCreatedProject(GitlabProject project) {
+        gitlabClient.getCache().invalidate(GitlabCache.PROJECT, project.id);
+        gitlabClient.getCache().put(GitlabCache.PROJECT, project.id, project);
+        gitlabClient.getIndex().putProject(project);
+    }
+
+    private GitlabCall<GitlabProject> createProjectCall(String name, String path, Integer namespaceId) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .post(new FormBody.Builder()
                         .add("name", name)
                         .add("path", path)
@@ -66,11 +195,8 @@ public class ProjectGitlabService {
                         .add("namespace_id", namespaceId.toString())
                         .build())
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    JsonObject json = new JsonParser().parse(response.body().string()).getAsJsonObject();
-                    return json.get("id").getAsInt();
-                },
+        return new GitlabCall<>("project.create", request,
+                (response) -> GitlabJson.read(response, GitlabProjectAdapter.INSTANCE),
                 (response) -> {
                     throw new RuntimeException("Error creating project: " + path + ", response was: " + response.body().string());
                 });
@@ -82,15 +208,48 @@ public class ProjectGitlabService {
      * @param name The project name
      */
     public void updateProject(Integer id, String name) {
+        try {
+            gitlabClient.execute(updateProjectCall(id, name));
+            renameIndexedProject(id, name);
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.PROJECT, id);
+        }
+    }
+
+    /**
+     * Update a project asynchronously.
+     *
+     * @param name The project name
+     */
+    public CompletableFuture<Void> updateProjectAsync(Integer id, String name) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(updateProjectCall(id, name))
+                .thenRun(() -> renameIndexedProject(id, name)), GitlabCache.PROJECT, id);
+    }
+
+    private void renameIndexedProject(Integer id, String name) {
+        GitlabProject indexed = gitlabClient.getIndex().getProject(id);
+        if (indexed != null) {
+            GitlabProject project = new GitlabProject();
+            project.id = id;
+            project.name = name;
+            project.path = indexed.path;
+            project.pathWithNamespace = indexed.pathWithNamespace;
+            project.namespaceId = indexed.namespaceId;
+            project.sshUrlToRepo = indexed.sshUrlToRepo;
+            project.updatedAt = indexed.updatedAt;
+            gitlabClient.getIndex().putProject(project);
+        }
+    }
+
+    private GitlabCall<Void> updateProjectCall(Integer id, String name) {
         RequestBody formBody = new FormBody.Builder()
                 .add("name", name)
                 .build();
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects/" + id))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .put(formBody)
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("project.update", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error updating project: " + id + ", response was: " + response.body().string());
@@ -98,17 +257,40 @@ public class ProjectGitlabService {
     }
 
     /**
-     * Create a new project.
+     * Delete a project.
      *
      * @param projectId The Gitlab project ID
      */
     public void deleteProject(Integer projectId) {
+        try {
+            gitlabClient.execute(deleteProjectCall(projectId));
+            gitlabClient.getIndex().removeProject(projectId);
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.PROJECT, projectId);
+            gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, projectId);
+        }
+    }
+
+    /**
+     * Delete a project asynchronously.
+     *
+     * @param projectId The Gitlab project ID
+     */
+    public CompletableFuture<Void> deleteProjectAsync(Integer projectId) {
+        return gitlabClient.executeAsync(deleteProjectCall(projectId))
+                .thenRun(() -> gitlabClient.getIndex().removeProject(projectId))
+                .whenComplete((result, e) -> {
+                    gitlabClient.getCache().invalidate(GitlabCache.PROJECT, projectId);
+                    gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, projectId);
+                });
+    }
+
+    private GitlabCall<Void> deleteProjectCall(Integer projectId) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects/" + projectId))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .delete()
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("project.delete", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error deleting project: " + request + ", response was: " + response.body().string());
@@ -116,27 +298,57 @@ public class ProjectGitlabService {
     }
 
     /**
-     * Get a project secret variable by its key.
+     * Get all the project secret variables.
      *
-     * @return Variable found
+     * @param projectId The Gitlab project ID
+     * @return The variables values, by key
      */
     public Map<String, String> getVariables(Integer projectId) {
+        Map<String, String> variableMap = gitlabClient.getCache().get(GitlabCache.VARIABLES, projectId, () -> {
+            try (Stream<GitlabVariable> variables = streamVariables(projectId)) {
+                return toVariableMap(variables);
+            }
+        });
+        return new HashMap<>(variableMap);
+    }
+
+    /**
+     * Get all the project secret variables asynchronously.
+     *
+     * @param projectId The Gitlab project ID
+     * @return The variables values, by key
+     */
+    public CompletableFuture<Map<String, String>> getVariablesAsync(Integer projectId) {
+        return gitlabClient.getCache().<Map<String, String>>getAsync(GitlabCache.VARIABLES, projectId,
+                () -> gitlabClient.collectAsync(getVariablesCall(projectId))
+                        .thenApply(variables -> toVariableMap(variables.stream())))
+                .thenApply(HashMap::new);
+    }
+
+    private Map<String, String> toVariableMap(Stream<GitlabVariable> variables) {
+        Map<String, String> variableMap = new HashMap<>();
+        variables.forEach(variable -> variableMap.put(variable.key, variable.value));
+        return Collections.unmodifiableMap(variableMap);
+    }
+
+    /**
+     * Stream all the project secret variables, page by page.
+     * The stream must be closed if it is not fully consumed.
+     *
+     * @param projectId The Gitlab project ID
+     * @return The variables
+     */
+    public Stream<GitlabVariable> streamVariables(Integer projectId) {
+        return gitlabClient.stream(getVariablesCall(projectId));
+    }
+
+    private GitlabCall<List<GitlabVariable>> getVariablesCall(Integer projectId) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects/" + projectId + "/variables"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .get()
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    Map<String, String> variables = new HashMap<>();
-                    JsonArray json = new JsonParser().parse(response.body().string()).getAsJsonArray();
-                    for (JsonElement variable : json) {
-                        String key = variable.getAsJsonObject().get("key").getAsString();
-                        String value = variable.getAsJsonObject().get("value").getAsString();
-                        variables.put(key, value);
-                    }
-                    return variables;
-                },
+        return new GitlabCall<>("project.variables.list", request,
+                (response) -> GitlabJson.readList(response, GitlabVariableAdapter.INSTANCE),
                 (response) -> {
                     throw new RuntimeException("Error getting project variables" + ", response was: " + response.body().string());
                 });
@@ -148,16 +360,25 @@ public class ProjectGitlabService {
      * @return Variable found
      */
     public String getVariableByKey(Integer projectId, String key) {
+        return gitlabClient.execute(getVariableByKeyCall(projectId, key));
+    }
+
+    /**
+     * Get a project secret variable by its key asynchronously.
+     *
+     * @return Variable found
+     */
+    public CompletableFuture<String> getVariableByKeyAsync(Integer projectId, String key) {
+        return gitlabClient.executeAsync(getVariableByKeyCall(projectId, key));
+    }
+
+    private GitlabCall<String> getVariableByKeyCall(Integer projectId, String key) {
         Request request = new Request.Builder()
-                .url(gitlabClient.getUrl("/projects/" + projectId + "/variables" + key))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
+                .url(gitlabClient.getUrl("/projects/" + projectId + "/variables/" + key))
                 .get()
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    JsonObject json = new JsonParser().parse(response.body().string()).getAsJsonObject();
-                    return json.get("value").getAsString();
-                },
+        return new GitlabCall<>("project.variables.get", request,
+                (response) -> GitlabJson.readField(response, "value"),
                 (response) -> {
                     throw new RuntimeException("Error getting variable: " + key + ", response was: " + response.body().string());
                 });
@@ -172,17 +393,36 @@ public class ProjectGitlabService {
      * @param variableProtected The variable is protected
      */
     public void createVariable(Integer projectId, String key, String value, boolean variableProtected) {
+        try {
+            gitlabClient.execute(createVariableCall(projectId, key, value, variableProtected));
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, projectId);
+        }
+    }
+
+    /**
+     * Create a project secret variable asynchronously.
+     *
+     * @param projectId The Gitlab project Id
+     * @param key The variable key
+     * @param value The variable value
+     * @param variableProtected The variable is protected
+     */
+    public CompletableFuture<Void> createVariableAsync(Integer projectId, String key, String value, boolean variableProtected) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(createVariableCall(projectId, key, value, variableProtected)), GitlabCache.VARIABLES, projectId);
+    }
+
+    private GitlabCall<Void> createVariableCall(Integer projectId, String key, String value, boolean variableProtected) {
         RequestBody formBody = new FormBody.Builder()
                 .add("key", key)
                 .add("value", value)
-                .add("variableProtected", Boolean.toString(variableProtected))
+                .add("protected", Boolean.toString(variableProtected))
                 .build();
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects/" + projectId + "/variables"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .post(formBody)
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("project.variables.create", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error creating secret variable: " + key + ", response was: " + response.body().string());
@@ -198,19 +438,418 @@ public class ProjectGitlabService {
      * @param variableProtected The variable is protected
      */
     public void updateVariable(Integer projectId, String key, String value, boolean variableProtected) {
+        try {
+            gitlabClient.execute(updateVariableCall(projectId, key, value, variableProtected));
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, projectId);
+        }
+    }
+
+    /**
+     * Update a project secret variable asynchronously.
+     *
+     * @param projectId The Gitlab project Id
+     * @param key The variable key
+     * @param value The variable value
+     * @param variableProtected The variable is protected
+     */
+    public CompletableFuture<Void> updateVariableAsync(Integer projectId, String key, String value, boolean variableProtected) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(updateVariableCall(projectId, key, value, variableProtected)), GitlabCache.VARIABLES, projectId);
+    }
+
+    private GitlabCall<Void> updateVariableCall(Integer projectId, String key, String value, boolean variableProtected) {
         RequestBody formBody = new FormBody.Builder()
                 .add("value", value)
-                .add("variableProtected", Boolean.toString(variableProtected))
+                .add("protected", Boolean.toString(variableProtected))
                 .build();
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/projects/" + projectId + "/variables/" + key))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .put(formBody)
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("project.variables.update", request,
                 null,
                 (response) -> {
                     throw new RuntimeException("Error updating secret variable: " + key + ", response was: " + response.body().string());
                 });
     }
+
+    /**
+     * Delete a project secret variable.
+     *
+     * @param projectId The Gitlab project Id
+     * @param key The variable key
+     */
+    public void deleteVariable(Integer projectId, String key) {
+        try {
+            gitlabClient.execute(deleteVariableCall(projectId, key));
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, projectId);
+        }
+    }
+
+    /**
+     * Delete a project secret variable asynchronously.
+     *
+     * @param projectId The Gitlab project Id
+     * @param key The variable key
+     */
+    public CompletableFuture<Void> deleteVariableAsync(Integer projectId, String key) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(deleteVariableCall(projectId, key)), GitlabCache.VARIABLES, projectId);
+    }
+
+    private GitlabCall<Void> deleteVariableCall(Integer projectId, String key) {
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/projects/" + projectId + "/variables/" + key))
+                .delete()
+                .build();
+        return new GitlabCall<>("project.variables.delete", request,
+                null,
+                (response) -> {
+                    throw new RuntimeException("Error deleting secret variable: " + key + ", response was: " + response.body().string());
+                });
+    }
+
+    /**
+     * Create or update a set of project secret variables.
+     * The current variables are listed once, and only the missing or changed variables are written,
+     * with at most gitlab.bulk.parallelism calls at once.
+     *
+     * @param projectId The Gitlab project Id
+     * @param variables The variables, by key
+     * @return The result for each variable
+     */
+    public GitlabVariableSyncReport setVariables(Integer projectId, Map<String, GitlabVariableSpec> variables) {
+        return setVariables(projectId, variables, false);
+    }
+
+    /**
+     * Sync the project secret variables with a set of variables.
+     *
+     * @param projectId The Gitlab project Id
+     * @param variables The variables, by key
+     * @param deleteMissing Delete the variables not in the set
+     * @return The result for each variable
+     * @see #setVariables(Integer, Map)
+     */
+    public GitlabVariableSyncReport setVariables(Integer projectId, Map<String, GitlabVariableSpec> variables, boolean deleteMissing) {
+        checkVariables(variables);
+        List<GitlabVariable> currentVariables;
+        try (Stream<GitlabVariable> stream = streamVariables(projectId)) {
+            currentVariables = stream.collect(Collectors.toList());
+        }
+        return applyVariableSync(projectId, diffVariables(currentVariables, variables, deleteMissing), variables).join();
+    }
+
+    /**
+     * Create or update a set of project secret variables asynchronously.
+     *
+     * @param projectId The Gitlab project Id
+     * @param variables The variables, by key
+     * @return The result for each variable
+     * @see #setVariables(Integer, Map)
+     */
+    public CompletableFuture<GitlabVariableSyncReport> setVariablesAsync(Integer projectId, Map<String, GitlabVariableSpec> variables) {
+        return setVariablesAsync(projectId, variables, false);
+    }
+
+    /**
+     * Sync the project secret variables with a set of variables asynchronously.
+     *
+     * @param projectId The Gitlab project Id
+     * @param variables The variables, by key
+     * @param deleteMissing Delete the variables not in the set
+     * @return The result for each variable
+     * @see #setVariables(Integer, Map)
+     */
+    public CompletableFuture<GitlabVariableSyncReport> setVariablesAsync(Integer projectId, Map<String, GitlabVariableSpec> variables, boolean deleteMissing) {
+        try {
+            checkVariables(variables);
+        } catch (RuntimeException e) {
+            CompletableFuture<GitlabVariableSyncReport> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return gitlabClient.collectAsync(getVariablesCall(projectId))
+                .thenCompose(currentVariables -> applyVariableSync(projectId, diffVariables(currentVariables, variables, deleteMissing), variables));
+    }
+
+    /**
+     * Check that each variable has a value, before any call.
+     */
+    private static void checkVariables(Map<String, GitlabVariableSpec> variables) {
+        for (Map.Entry<String, GitlabVariableSpec> entry : variables.entrySet()) {
+            if (entry.getValue() == null || entry.getValue().value == null) {
+                throw new RuntimeException("Missing value of the secret variable: " + entry.getKey());
+            }
+        }
+    }
+
+    private List<GitlabVariableSyncResult> diffVariables(List<GitlabVariable> variables, Map<String, GitlabVariableSpec> specs, boolean deleteMissing) {
+        Map<String, GitlabVariable> currentVariables = variables.stream()
+                .collect(Collectors.toMap(variable -> variable.key, Function.identity(), (variable1, variable2) -> variable1));
+        List<GitlabVariableSyncResult> results = new ArrayList<>();
+        for (Map.Entry<String, GitlabVariableSpec> entry : specs.entrySet()) {
+            GitlabVariable variable = currentVariables.get(entry.getKey());
+            GitlabVariableSpec spec = entry.getValue();
+            GitlabVariableSyncResult result = new GitlabVariableSyncResult();
+            result.key = entry.getKey();
+            if (variable == null) {
+                result.action = GitlabVariableSyncResult.Action.CREATE;
+            } else if (Objects.equals(spec.value, variable.value) && spec.variableProtected == variable.variableProtected) {
+                result.action = GitlabVariableSyncResult.Action.UNCHANGED;
+            } else {
+                result.action = GitlabVariableSyncResult.Action.UPDATE;
+            }
+            results.add(result);
+        }
+        if (deleteMissing) {
+            for (String key : currentVariables.keySet()) {
+                if (!specs.containsKey(key)) {
+                    GitlabVariableSyncResult result = new GitlabVariableSyncResult();
+                    result.key = key;
+                    result.action = GitlabVariableSyncResult.Action.DELETE;
+                    results.add(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    private CompletableFuture<GitlabVariableSyncReport> applyVariableSync(Integer projectId, List<GitlabVariableSyncResult> results, Map<String, GitlabVariableSpec> specs) {
+        List<GitlabVariableSyncResult> changes = results.stream()
+                .filter(result -> result.action != GitlabVariableSyncResult.Action.UNCHANGED)
+                .collect(Collectors.toList());
+        return gitlabClient.forEachAsync(changes, gitlabClient.getBulkParallelism(), result -> {
+                    GitlabVariableSpec spec = specs.get(result.key);
+                    CompletableFuture<Void> future;
+                    switch (result.action) {
+                        case CREATE:
+                            future = gitlabClient.executeAsync(createVariableCall(projectId, result.key, spec.value, spec.variableProtected));
+                            break;
+                        case UPDATE:
+                            future = gitlabClient.executeAsync(updateVariableCall(projectId, result.key, spec.value, spec.variableProtected));
+                            break;
+                        default:
+                            future = gitlabClient.executeAsync(deleteVariableCall(projectId, result.key));
+                    }
+                    return future.whenComplete((v, e) -> {
+                        if (e != null) {
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                            result.error = cause.getMessage();
+                        }
+                    });
+                })
+                .handle((v, e) -> {
+                    gitlabClient.getCache().invalidate(GitlabCache.VARIABLES, projectId);
+                    GitlabVariableSyncReport report = new GitlabVariableSyncReport();
+                    report.projectId = projectId;
+                    report.results = results;
+                    return report;
+                });
+    }
+
+    /**
+     * Get projects by ID, with one GraphQL query per batch of IDs (gitlab.graphql.batchSize).
+     *
+     * @param ids The project IDs
+     * @return The projects found, by ID
+     */
+    public Map<Integer, GitlabProject> getProjectsByIds(Collection<Integer> ids) {
+        return gitlabClient.fetchByIds(ids, this::getProjectsByIdsCall);
+    }
+
+    /**
+     * Get projects by ID asynchronously, with one GraphQL query per batch of IDs (gitlab.graphql.batchSize).
+     *
+     * @param ids The project IDs
+     * @return The projects found, by ID
+     */
+    public CompletableFuture<Map<Integer, GitlabProject>> getProjectsByIdsAsync(Collection<Integer> ids) {
+        return gitlabClient.fetchByIdsAsync(ids, this::getProjectsByIdsCall);
+    }
+
+    private GitlabCall<Map<Integer, GitlabProject>> getProjectsByIdsCall(List<Integer> ids) {
+        // Not cached if invalidated during the query: the result may predate the write
+        Map<Integer, Long> generations = gitlabClient.getCache().getGenerations(GitlabCache.PROJECT, ids);
+        Request request = new Request.Builder()
+                .url(gitlabClient.getGraphqlUrl())
+                .post(GitlabGraphql.newIdsQuery(PROJECTS_QUERY, "Project", ids))
+                .build();
+        return new GitlabCall<>("project.getByIds", request,
+                (response) -> {
+                    Map<Integer, GitlabProject> projects = new HashMap<>();
+                    for (GitlabProject project : GitlabGraphql.readNodes(response, "projects", GitlabProjectNodeAdapter.INSTANCE)) {
+                        projects.put(project.id, project);
+                        gitlabClient.getCache().put(GitlabCache.PROJECT, project.id, project, generations.getOrDefault(project.id, -1L));
+                    }
+                    return projects;
+                },
+                (response) -> {
+                    throw new RuntimeException("Error getting projects: " + ids + ", response was: " + response.body().string());
+                });
+    }
+
+    /**
+     * Download the archive of a repository to a file.
+     * An existing file is resumed from its length.
+     *
+     * @param projectId The Gitlab project ID
+     * @param ref The branch, tag or commit, null for the default branch
+     * @param format The archive format (e.g. "tar.gz", "zip")
+     * @param file The destination file
+     * @param listener Receives the progress, can be null
+     * @return The file size
+     */
+    public long downloadArchive(Integer projectId, String ref, String format, File file, GitlabProgressListener listener) {
+        return gitlabClient.download("project.repository.archive", getArchiveRequest(projectId, ref, format), file, listener);
+    }
+
+    /**
+     * Download the archive of a repository to a file asynchronously.
+     * An existing file is resumed from its length.
+     *
+     * @param projectId The Gitlab project ID
+     * @param ref The branch, tag or commit, null for the default branch
+     * @param format The archive format (e.g. "tar.gz", "zip")
+     * @param file The destination file
+     * @param listener Receives the progress, can be null
+     * @return The file size
+     */
+    public CompletableFuture<Long> downloadArchiveAsync(Integer projectId, String ref, String format, File file, GitlabProgressListener listener) {
+        return gitlabClient.downloadAsync("project.repository.archive", getArchiveRequest(projectId, ref, format), file, listener);
+    }
+
+    /**
+     * Download the archive of a repository to a stream.
+     *
+     * @param projectId The Gitlab project ID
+     * @param ref The branch, tag or commit, null for the default branch
+     * @param format The archive format (e.g. "tar.gz", "zip")
+     * @param out The destination stream, not closed
+     * @param listener Receives the progress, can be null
+     * @return The number of bytes written
+     */
+    public long downloadArchive(Integer projectId, String ref, String format, OutputStream out, GitlabProgressListener listener) {
+        return gitlabClient.download("project.repository.archive", getArchiveRequest(projectId, ref, format), out, listener);
+    }
+
+    private Request getArchiveRequest(Integer projectId, String ref, String format) {
+        HttpUrl.Builder url = gitlabClient.getBaseUrl().newBuilder()
+                .addPathSegments("projects/" + projectId + "/repository/archive." + format);
+        if (ref != null) {
+            url.addQueryParameter("sha", ref);
+        }
+        return new Request.Builder()
+                .url(url.build())
+                .get()
+                .build();
+    }
+
+    /**
+     * Schedule the export of a project.
+     * The export can be downloaded when its status is "finished".
+     *
+     * @param projectId The Gitlab project ID
+     */
+    public void scheduleExport(Integer projectId) {
+        gitlabClient.execute(scheduleExportCall(projectId));
+    }
+
+    /**
+     * Schedule the export of a project asynchronously.
+     *
+     * @param projectId The Gitlab project ID
+     */
+    public CompletableFuture<Void> scheduleExportAsync(Integer projectId) {
+        return gitlabClient.executeAsync(scheduleExportCall(projectId));
+    }
+
+    private GitlabCall<Void> scheduleExportCall(Integer projectId) {
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/projects/" + projectId + "/export"))
+                .post(new FormBody.Builder().build())
+                .build();
+        return new GitlabCall<>("project.export.create", request,
+                null,
+                (response) -> {
+                    throw new RuntimeException("Error scheduling project export: " + projectId + ", response was: " + response.body().string());
+                });
+    }
+
+    /**
+     * Get the status of the export of a project.
+     *
+     * @param projectId The Gitlab project ID
+     * @return The export status ("none", "queued", "started", "finished", "regeneration_in_progress")
+     */
+    public String getExportStatus(Integer projectId) {
+        return gitlabClient.execute(getExportStatusCall(projectId));
+    }
+
+    /**
+     * Get the status of the export of a project asynchronously.
+     *
+     * @param projectId The Gitlab project ID
+     * @return The export status ("none", "queued", "started", "finished", "regeneration_in_progress")
+     */
+    public CompletableFuture<String> getExportStatusAsync(Integer projectId) {
+        return gitlabClient.executeAsync(getExportStatusCall(projectId));
+    }
+
+    private GitlabCall<String> getExportStatusCall(Integer projectId) {
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/projects/" + projectId + "/export"))
+                .get()
+                .build();
+        return new GitlabCall<>("project.export.get", request,
+                (response) -> GitlabJson.readField(response, "export_status"),
+                (response) -> {
+                    throw new RuntimeException("Error getting project export status: " + projectId + ", response was: " + response.body().string());
+                });
+    }
+
+    /**
+     * Download the export of a project to a file.
+     * An existing file is resumed from its length.
+     *
+     * @param projectId The Gitlab project ID
+     * @param file The destination file
+     * @param listener Receives the progress, can be null
+     * @return The file size
+     */
+    public long downloadExport(Integer projectId, File file, GitlabProgressListener listener) {
+        return gitlabClient.download("project.export.download", getExportDownloadRequest(projectId), file, listener);
+    }
+
+    /**
+     * Download the export of a project to a file asynchronously.
+     * An existing file is resumed from its length.
+     *
+     * @param projectId The Gitlab project ID
+     * @param file The destination file
+     * @param listener Receives the progress, can be null
+     * @return The file size
+     */
+    public CompletableFuture<Long> downloadExportAsync(Integer projectId, File file, GitlabProgressListener listener) {
+        return gitlabClient.downloadAsync("project.export.download", getExportDownloadRequest(projectId), file, listener);
+    }
+
+    /**
+     * Download the export of a project to a stream.
+     *
+     * @param projectId The Gitlab project ID
+     * @param out The destination stream, not closed
+     * @param listener Receives the progress, can be null
+     * @return The number of bytes written
+     */
+    public long downloadExport(Integer projectId, OutputStream out, GitlabProgressListener listener) {
+        return gitlabClient.download("project.export.download", getExportDownloadRequest(projectId), out, listener);
+    }
+
+    private Request getExportDownloadRequest(Integer projectId) {
+        return new Request.Builder()
+                .url(gitlabClient.getUrl("/projects/" + projectId + "/export/download"))
+                .get()
+                .build();
+    }
 }
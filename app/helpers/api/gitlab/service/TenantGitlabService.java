@@ -0,0 +1,219 @@
+package helpers.api.gitlab.service;
+
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.model.GitlabTenant;
+import helpers.api.gitlab.model.GitlabTenantProjectSpec;
+import helpers.api.gitlab.model.GitlabTenantSpec;
+import helpers.api.gitlab.model.GitlabTenantUserSpec;
+import helpers.api.gitlab.model.GitlabVariableSpec;
+import play.Logger;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Provisioning of tenants: a group, its users and its projects with their variables.
+ *
+ * @author jtremeaux
+ */
+public class TenantGitlabService {
+    public GitlabClient gitlabClient;
+
+    public TenantGitlabService(GitlabClient gitlabClient) {
+        this.gitlabClient = gitlabClient;
+    }
+
+    /**
+     * Provision a tenant.
+     * The steps run as soon as the steps they depend on are completed: the users are created along with the group,
+     * then each user is added to the group, and each project is created then its variables are set, concurrently
+     * (with at most gitlab.bulk.parallelism calls at once for each level).
+     * If a step fails, the steps not started yet are cancelled, the steps already completed are undone in the reverse order,
+     * and the error is thrown.
+     *
+     * @param spec The tenant
+     * @return The IDs of the tenant entities
+     */
+    public GitlabTenant provisionTenant(GitlabTenantSpec spec) {
+        try {
+            return provisionTenantAsync(spec).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Provision a tenant asynchronously.
+     *
+     * @param spec The tenant
+     * @return The IDs of the tenant entities
+     * @see #provisionTenant(GitlabTenantSpec)
+     */
+    public CompletableFuture<GitlabTenant> provisionTenantAsync(GitlabTenantSpec spec) {
+        return new Provisioning(spec).run();
+    }
+
+    /**
+     * The state of a tenant provisioning: the IDs created so far, and how to undo each completed step.
+     */
+    private class Provisioning {
+        private final GitlabTenantSpec spec;
+
+        private final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+
+        private final Map<String, Integer> projectIds = new ConcurrentHashMap<>();
+
+        /**
+         * The compensations of the completed steps, the last completed first.
+         */
+        private final Deque<Compensation> compensations = new ConcurrentLinkedDeque<>();
+
+        /**
+         * The first error (the steps depending on a failed step are not run and don't add errors).
+         */
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Provisioning(GitlabTenantSpec spec) {
+            this.spec = spec;
+        }
+
+        CompletableFuture<GitlabTenant> run() {
+            GroupGitlabService groupService = gitlabClient.getGroupService();
+            UserGitlabService userService = gitlabClient.getUserService();
+            int parallelism = gitlabClient.getBulkParallelism();
+
+            CompletableFuture<Integer> group = step("group " + spec.groupPath,
+                    () -> groupService.createGroupAsync(spec.groupName, spec.groupPath),
+                    groupService::deleteGroupAsync);
+
+            CompletableFuture<Void> users = gitlabClient.forEachAsync(spec.users, parallelism, (GitlabTenantUserSpec user) ->
+                    step("user " + user.username,
+                            () -> userService.createUserAsync(user.email, user.username, user.name, user.password),
+                            userService::deleteUserAsync)
+                            .thenCompose(userId -> {
+                                userIds.put(user.username, userId);
+                                return group.thenCompose(groupId -> step("member " + user.username,
+                                        () -> groupService.createGroupUserAsync(groupId, userId, spec.accessLevel),
+                                        v -> groupService.deleteGroupUserAsync(groupId, userId)));
+                            }));
+
+            CompletableFuture<Void> projects = group.thenCompose(groupId -> gitlabClient.forEachAsync(spec.projects, parallelism,
+                    (GitlabTenantProjectSpec project) -> createProject(groupId, project, parallelism)));
+
+            return CompletableFuture.allOf(group, users, projects)
+                    .handle((result, e) -> e)
+                    .thenCompose(e -> {
+                        if (e == null) {
+                            GitlabTenant tenant = new GitlabTenant();
+                            tenant.groupId = group.join();
+                            tenant.userIds = userIds;
+                            tenant.projectIds = projectIds;
+                            return CompletableFuture.completedFuture(tenant);
+                        }
+                        return rollback(failure.get() != null ? failure.get() : unwrap(e));
+                    });
+        }
+
+        private CompletableFuture<Void> createProject(Integer groupId, GitlabTenantProjectSpec project, int parallelism) {
+            ProjectGitlabService projectService = gitlabClient.getProjectService();
+            return step("project " + project.path,
+                    () -> projectService.createProjectAsync(project.name, project.path, groupId),
+                    projectService::deleteProjectAsync)
+                    .thenCompose(projectId -> {
+                        projectIds.put(project.path, projectId);
+                        return gitlabClient.forEachAsync(project.variables.entrySet(), parallelism, (Map.Entry<String, GitlabVariableSpec> variable) ->
+                                step("variable " + project.path + "/" + variable.getKey(),
+                                        () -> projectService.createVariableAsync(projectId, variable.getKey(), variable.getValue().value, variable.getValue().variableProtected),
+                                        v -> projectService.deleteVariableAsync(projectId, variable.getKey())));
+                    });
+        }
+
+        /**
+         * Run a step, and register its compensation if it succeeds.
+         * Once a step has failed, the steps not started yet are cancelled: the rollback only undoes the steps
+         * started before the failure.
+         *
+         * @param description The step description
+         * @param action Starts the step
+         * @param compensation Undoes the step, from its result
+         * @return The step result
+         */
+        private <T> CompletableFuture<T> step(String description, Supplier<CompletableFuture<T>> action, Function<T, CompletableFuture<Void>> compensation) {
+            CompletableFuture<T> future;
+            if (failure.get() != null) {
+                future = new CompletableFuture<>();
+                future.cancel(false);
+                return future;
+            }
+            try {
+                future = action.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            return future.whenComplete((result, e) -> {
+                if (e == null) {
+                    compensations.addFirst(new Compensation(description, () -> compensation.apply(result)));
+                } else {
+                    failure.compareAndSet(null, unwrap(e));
+                }
+            });
+        }
+
+        /**
+         * Undo the completed steps one by one, the last completed first, then fail with the error.
+         * The compensations that fail are logged and added to the error as suppressed exceptions.
+         */
+        private CompletableFuture<GitlabTenant> rollback(Throwable cause) {
+            RuntimeException error = new RuntimeException("Error provisioning tenant: " + spec.groupPath + ", " + compensations.size() + " steps rolled back", cause);
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (Compensation compensation : compensations) {
+                chain = chain.thenCompose(v -> compensation.run()
+                        .handle((result, e) -> {
+                            if (e != null) {
+                                Logger.error(unwrap(e), "Error rolling back the " + compensation.description + " of tenant: " + spec.groupPath);
+                                synchronized (error) {
+                                    error.addSuppressed(unwrap(e));
+                                }
+                            }
+                            return null;
+                        }));
+            }
+            return chain.thenApply(v -> {
+                throw error;
+            });
+        }
+    }
+
+    private static class Compensation {
+        private final String description;
+
+        private final Supplier<CompletableFuture<Void>> action;
+
+        Compensation(String description, Supplier<CompletableFuture<Void>> action) {
+            this.description = description;
+            this.action = action;
+        }
+
+        CompletableFuture<Void> run() {
+            try {
+                return action.get();
+            } catch (RuntimeException e) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
@@ -1,17 +1,31 @@
 package helpers.api.gitlab.service;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.sismics.sapparot.exception.ValidationException;
+import helpers.api.gitlab.GitlabCache;
+import helpers.api.gitlab.GitlabCall;
 import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.json.GitlabGraphql;
+import helpers.api.gitlab.json.GitlabJson;
+import helpers.api.gitlab.json.GitlabUserAdapter;
+import helpers.api.gitlab.json.GitlabUserNodeAdapter;
+import helpers.api.gitlab.model.GitlabUser;
 import okhttp3.FormBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
 /**
  * @author jtremeaux
  */
 public class UserGitlabService {
+    private static final String USERS_QUERY = "query($ids: [ID!], $first: Int) { users(ids: $ids, first: $first) { nodes { " + GitlabUserNodeAdapter.FIELDS + " } } }";
+
     public GitlabClient gitlabClient;
 
     public UserGitlabService(GitlabClient gitlabClient) {
@@ -25,14 +39,75 @@ public class UserGitlabService {
      * @return User found
      */
     public boolean getUserById(Integer id) {
+        return gitlabClient.getCache().get(GitlabCache.USER, id, () -> gitlabClient.execute(getUserByIdCall(id)) != null);
+    }
+
+    /**
+     * Get the user asynchronously.
+     *
+     * @param id The user ID
+     * @return User found
+     */
+    public CompletableFuture<Boolean> getUserByIdAsync(Integer id) {
+        return gitlabClient.getCache().getAsync(GitlabCache.USER, id, () -> gitlabClient.executeAsync(getUserByIdCall(id))
+                .thenApply(found -> found != null));
+    }
+
+    private GitlabCall<Boolean> getUserByIdCall(Integer id) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/users/" + id))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .get()
                 .build();
-        return gitlabClient.execute(request,
+        return new GitlabCall<>("user.get", request,
                 (response) -> true,
-                null) != null;
+                (response) -> {
+                    // Only a missing user is cached as not found, the other errors are not cached
+                    if (response.code() != 404) {
+                        throw new RuntimeException("Error getting user: " + id + ", response was: " + response.body().string());
+                    }
+                });
+    }
+
+    /**
+     * Find a user in the local index.
+     *
+     * @param id The user ID
+     * @return The user, or null if not indexed (or the index is disabled)
+     */
+    public GitlabUser findUserById(Integer id) {
+        return gitlabClient.getIndex().getUser(id);
+    }
+
+    /**
+     * Find a user by its username in the local index (case insensitive).
+     *
+     * @param username The username
+     * @return The user, or null if not indexed (or the index is disabled)
+     */
+    public GitlabUser findUserByUsername(String username) {
+        return gitlabClient.getIndex().getUserByUsername(username);
+    }
+
+    /**
+     * Stream all the users, most recently updated first.
+     * The stream must be closed if it is not fully consumed.
+     *
+     * @return The users
+     */
+    public Stream<GitlabUser> streamUsersByUpdateDate() {
+        return gitlabClient.stream(getUsersCall());
+    }
+
+    private GitlabCall<List<GitlabUser>> getUsersCall() {
+        Request request = new Request.Builder()
+                .url(gitlabClient.getUrl("/users?order_by=updated_at&sort=desc"))
+                .get()
+                .build();
+        return new GitlabCall<>("user.list", request,
+                (response) -> GitlabJson.readList(response, GitlabUserAdapter.INSTANCE),
+                (response) -> {
+                    throw new RuntimeException("Error getting users, response was: " + response.body().string());
+                });
     }
 
     /**
@@ -45,6 +120,39 @@ public class UserGitlabService {
      * @return The Gitlab user ID
      */
     public Integer createUser(String email, String username, String name, String password) {
+        Integer id = gitlabClient.execute(createUserCall(email, username, name, password));
+        gitlabClient.getCache().invalidate(GitlabCache.USER, id);
+        indexUser(id, username, name);
+        return id;
+    }
+
+    /**
+     * Create a new user asynchronously.
+     *
+     * @param email The user email
+     * @param username The username
+     * @param name The full name
+     * @param password The password
+     * @return The Gitlab user ID
+     */
+    public CompletableFuture<Integer> createUserAsync(String email, String username, String name, String password) {
+        return gitlabClient.executeAsync(createUserCall(email, username, name, password))
+                .thenApply(id -> {
+                    gitlabClient.getCache().invalidate(GitlabCache.USER, id);
+                    indexUser(id, username, name);
+                    return id;
+                });
+    }
+
+    private void indexUser(Integer id, String username, String name) {
+        GitlabUser user = new GitlabUser();
+        user.id = id;
+        user.username = username;
+        user.name = name;
+        gitlabClient.getIndex().putUser(user);
+    }
+
+    private GitlabCall<Integer> createUserCall(String email, String username, String name, String password) {
         RequestBody formBody = new FormBody.Builder()
                 .add("email", email)
                 .add("password", password)
@@ -58,14 +166,10 @@ public class UserGitlabService {
                 .build();
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/users"))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .post(formBody)
                 .build();
-        return gitlabClient.execute(request,
-                (response) -> {
-                    JsonObject json = new JsonParser().parse(response.body().string()).getAsJsonObject();
-                    return json.get("id").getAsInt();
-                },
+        return new GitlabCall<>("user.create", request,
+                GitlabJson::readId,
                 (response) -> {
                     String responseBody = response.body().string();
                     if (responseBody.contains("Username has already been taken")) {
@@ -81,15 +185,74 @@ public class UserGitlabService {
      * @param id The ID of the user to delete
      */
     public void deleteUser(Integer id) {
+        try {
+            gitlabClient.execute(deleteUserCall(id));
+            gitlabClient.getIndex().removeUser(id);
+        } finally {
+            gitlabClient.getCache().invalidate(GitlabCache.USER, id);
+        }
+    }
+
+    /**
+     * Delete a user asynchronously.
+     *
+     * @param id The ID of the user to delete
+     */
+    public CompletableFuture<Void> deleteUserAsync(Integer id) {
+        return gitlabClient.getCache().invalidateOnComplete(gitlabClient.executeAsync(deleteUserCall(id))
+                .thenRun(() -> gitlabClient.getIndex().removeUser(id)), GitlabCache.USER, id);
+    }
+
+    private GitlabCall<Void> deleteUserCall(Integer id) {
         Request request = new Request.Builder()
                 .url(gitlabClient.getUrl("/users/" + id))
-                .header("PRIVATE-TOKEN", gitlabClient.getGitlabToken())
                 .delete()
                 .build();
-        gitlabClient.execute(request,
+        return new GitlabCall<>("user.delete", request,
                 (response) -> null,
                 (response) -> {
                     throw new RuntimeException("Error deleting user: " + id + ", response was: " + response.body().string());
                 });
     }
+
+    /**
+     * Get users by ID, with one GraphQL query per batch of IDs (gitlab.graphql.batchSize).
+     *
+     * @param ids The user IDs
+     * @return The users found, by ID
+     */
+    public Map<Integer, GitlabUser> getUsersByIds(Collection<Integer> ids) {
+        return gitlabClient.fetchByIds(ids, this::getUsersByIdsCall);
+    }
+
+    /**
+     * Get users by ID asynchronously, with one GraphQL query per batch of IDs (gitlab.graphql.batchSize).
+     *
+     * @param ids The user IDs
+     * @return The users found, by ID
+     */
+    public CompletableFuture<Map<Integer, GitlabUser>> getUsersByIdsAsync(Collection<Integer> ids) {
+        return gitlabClient.fetchByIdsAsync(ids, this::getUsersByIdsCall);
+    }
+
+    private GitlabCall<Map<Integer, GitlabUser>> getUsersByIdsCall(List<Integer> ids) {
+        // Not cached if invalidated during the query: the result may predate the write
+        Map<Integer, Long> generations = gitlabClient.getCache().getGenerations(GitlabCache.USER, ids);
+        Request request = new Request.Builder()
+                .url(gitlabClient.getGraphqlUrl())
+                .post(GitlabGraphql.newIdsQuery(USERS_QUERY, "User", ids))
+                .build();
+        return new GitlabCall<>("user.getByIds", request,
+                (response) -> {
+                    Map<Integer, GitlabUser> users = new HashMap<>();
+                    for (GitlabUser user : GitlabGraphql.readNodes(response, "users", GitlabUserNodeAdapter.INSTANCE)) {
+                        users.put(user.id, user);
+                        gitlabClient.getCache().put(GitlabCache.USER, user.id, true, generations.getOrDefault(user.id, -1L));
+                    }
+                    return users;
+                },
+                (response) -> {
+                    throw new RuntimeException("Error getting users: " + ids + ", response was: " + response.body().string());
+                });
+    }
 }
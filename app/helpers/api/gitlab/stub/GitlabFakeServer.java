@@ -0,0 +1,970 @@
+package helpers.api.gitlab.stub;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import play.Play;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory fake of the Gitlab API, served in-process over HTTP.
+ * Users, groups, members, projects, variables and exports are kept in memory, and the listings are paginated like Gitlab's,
+ * so the real services (HTTP, parsing, ID flows) can run without any Gitlab instance.
+ * The GraphQL queries of entities by IDs are also answered.
+ * Latency and errors can be injected to load-test the callers.
+ * The fake is thread-safe.
+ *
+ * @author jtremeaux
+ */
+public class GitlabFakeServer {
+    private static final Pattern GRAPHQL_FIELD = Pattern.compile("\\{\\s*(projects|groups|users)\\s*\\(");
+
+    private static GitlabFakeServer instance;
+
+    private final Map<Integer, FakeUser> users = new ConcurrentHashMap<>();
+
+    private final Map<Integer, FakeGroup> groups = new ConcurrentHashMap<>();
+
+    private final Map<Integer, FakeProject> projects = new ConcurrentHashMap<>();
+
+    private final AtomicInteger userSequence = new AtomicInteger();
+
+    private final AtomicInteger groupSequence = new AtomicInteger();
+
+    private final AtomicInteger projectSequence = new AtomicInteger();
+
+    private volatile int minLatency;
+
+    private volatile int maxLatency;
+
+    private volatile double errorRate;
+
+    private volatile double slowRate;
+
+    private volatile int slowLatency;
+
+    private volatile int archiveSize = 256 * 1024;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * Returns the fake server of the application, started on first use.
+     * The injected latency (gitlab.mock.latency, e.g. "10-50" ms), slow responses (gitlab.mock.slowRate, e.g. 0.05,
+     * and gitlab.mock.slowLatency, e.g. 1000 ms) and error rate (gitlab.mock.errorRate, e.g. 0.01) are read from the configuration.
+     *
+     * @return The fake server
+     */
+    public static synchronized GitlabFakeServer getInstance() {
+        if (instance == null) {
+            GitlabFakeServer server = new GitlabFakeServer();
+            String[] latency = Play.configuration.getProperty("gitlab.mock.latency", "0").split("-");
+            server.setLatency(Integer.parseInt(latency[0].trim()), Integer.parseInt(latency[latency.length - 1].trim()));
+            server.setSlowRate(Double.parseDouble(Play.configuration.getProperty("gitlab.mock.slowRate", "0")),
+                    Integer.parseInt(Play.configuration.getProperty("gitlab.mock.slowLatency", "1000").trim()));
+            server.setErrorRate(Double.parseDouble(Play.configuration.getProperty("gitlab.mock.errorRate", "0")));
+            try {
+                server.start(Integer.parseInt(Play.configuration.getProperty("gitlab.mock.port", "0")));
+            } catch (IOException e) {
+                throw new RuntimeException("Error starting the Gitlab fake server", e);
+            }
+            instance = server;
+        }
+        return instance;
+    }
+
+    /**
+     * Start the server on a local port.
+     *
+     * @param port The port, 0 for a random port
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "gitlab-fake");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/v4/", this::handle);
+        server.createContext("/api/graphql", this::handleGraphql);
+        server.start();
+    }
+
+    public void start() throws IOException {
+        start(0);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the URL to set as gitlab.url.
+     *
+     * @return The server URL
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Delay each response randomly.
+     *
+     * @param minLatency Minimum latency in milliseconds
+     * @param maxLatency Maximum latency in milliseconds
+     */
+    public void setLatency(int minLatency, int maxLatency) {
+        this.minLatency = minLatency;
+        this.maxLatency = Math.max(minLatency, maxLatency);
+    }
+
+    /**
+     * Delay a fraction of the responses further, as a slow worker behind a load balancer would.
+     *
+     * @param slowRate The fraction of slow responses, between 0 and 1
+     * @param slowLatency The latency added to the slow responses in milliseconds
+     */
+    public void setSlowRate(double slowRate, int slowLatency) {
+        this.slowRate = slowRate;
+        this.slowLatency = slowLatency;
+    }
+
+    /**
+     * Answer a fraction of the requests with a 503 error.
+     *
+     * @param errorRate The error rate, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Set the size of the repository archives and project exports.
+     *
+     * @param archiveSize The size in bytes
+     */
+    public void setArchiveSize(int archiveSize) {
+        this.archiveSize = archiveSize;
+    }
+
+    /**
+     * Remove all the data.
+     */
+    public synchronized void reset() {
+        users.clear();
+        groups.clear();
+        projects.clear();
+    }
+
+    /**
+     * Create a user.
+     *
+     * @return The user ID, or null if the username is already taken
+     */
+    public synchronized Integer createUser(String username, String name, String email) {
+        if (users.values().stream().anyMatch(user -> user.username.equals(username))) {
+            return null;
+        }
+        FakeUser user = new FakeUser();
+        user.id = userSequence.incrementAndGet();
+        user.username = username;
+        user.name = name;
+        user.email = email;
+        users.put(user.id, user);
+        return user.id;
+    }
+
+    /**
+     * Create a group.
+     *
+     * @return The group ID, or null if the path is already taken
+     */
+    public synchronized Integer createGroup(String name, String path) {
+        if (groups.values().stream().anyMatch(group -> group.path.equals(path))) {
+            return null;
+        }
+        FakeGroup group = new FakeGroup();
+        group.id = groupSequence.incrementAndGet();
+        group.name = name;
+        group.path = path;
+        groups.put(group.id, group);
+        return group.id;
+    }
+
+    /**
+     * Create a project.
+     *
+     * @return The project ID, or null if the path is already taken in the namespace or the namespace doesn't exist
+     */
+    public synchronized Integer createProject(String name, String path, Integer namespaceId) {
+        if (!groups.containsKey(namespaceId)
+                || projects.values().stream().anyMatch(project -> project.namespaceId.equals(namespaceId) && project.path.equals(path))) {
+            return null;
+        }
+        FakeProject project = new FakeProject();
+        project.id = projectSequence.incrementAndGet();
+        project.name = name;
+        project.path = path;
+        project.namespaceId = namespaceId;
+        projects.put(project.id, project);
+        return project.id;
+    }
+
+    /**
+     * Add a member to a group, or update its access level.
+     *
+     * @return False if the group or the user doesn't exist
+     */
+    public boolean putMember(Integer groupId, Integer userId, int accessLevel) {
+        FakeGroup group = groups.get(groupId);
+        if (group == null || !users.containsKey(userId)) {
+            return false;
+        }
+        group.members.put(userId, accessLevel);
+        group.touch();
+        return true;
+    }
+
+    /**
+     * Create or update a project variable.
+     *
+     * @return False if the project doesn't exist
+     */
+    public boolean putVariable(Integer projectId, String key, String value, boolean variableProtected) {
+        FakeProject project = projects.get(projectId);
+        if (project == null) {
+            return false;
+        }
+        FakeVariable variable = new FakeVariable();
+        variable.key = key;
+        variable.value = value;
+        variable.variableProtected = variableProtected;
+        project.variables.put(key, variable);
+        return true;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            injectLatency();
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                drain(exchange);
+                sendMessage(exchange, 503, "503 Service Unavailable (injected)");
+                return;
+            }
+            String token = exchange.getRequestHeaders().getFirst("PRIVATE-TOKEN");
+            if (token == null || token.isEmpty()) {
+                drain(exchange);
+                sendMessage(exchange, 401, "401 Unauthorized");
+                return;
+            }
+            String[] path = exchange.getRequestURI().getPath().substring("/api/v4/".length()).split("/");
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            params.putAll(parseQuery(readBody(exchange)));
+            Request request = new Request(exchange, exchange.getRequestMethod(), path, params);
+            switch (path[0]) {
+                case "users":
+                    handleUsers(request);
+                    break;
+                case "groups":
+                    handleGroups(request);
+                    break;
+                case "projects":
+                    handleProjects(request);
+                    break;
+                default:
+                    sendMessage(exchange, 404, "404 Not Found");
+            }
+        } catch (NumberFormatException e) {
+            sendMessage(exchange, 400, "400 Bad request - " + e.getMessage());
+        } catch (RuntimeException e) {
+            sendMessage(exchange, 500, "500 Internal Server Error - " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer the GraphQL queries of entities by global IDs: projects(ids: $ids), groups(ids: $ids) and users(ids: $ids).
+     */
+    private void handleGraphql(HttpExchange exchange) throws IOException {
+        try {
+            injectLatency();
+            JsonObject body = new JsonParser().parse(readBody(exchange)).getAsJsonObject();
+            Matcher matcher = GRAPHQL_FIELD.matcher(body.get("query").getAsString());
+            if (!matcher.find()) {
+                send(exchange, 200, writer -> writer.beginObject()
+                        .name("data").nullValue()
+                        .name("errors").beginArray().beginObject().name("message").value("Unsupported query").endObject().endArray()
+                        .endObject());
+                return;
+            }
+            String field = matcher.group(1);
+            List<Integer> ids = new ArrayList<>();
+            for (JsonElement id : body.getAsJsonObject("variables").getAsJsonArray("ids")) {
+                String globalId = id.getAsString();
+                ids.add(Integer.valueOf(globalId.substring(globalId.lastIndexOf('/') + 1)));
+            }
+            send(exchange, 200, writer -> {
+                writer.beginObject().name("data").beginObject().name(field).beginObject().name("nodes").beginArray();
+                for (Integer id : ids) {
+                    writeNode(writer, field, id);
+                }
+                writer.endArray().endObject().endObject().endObject();
+            });
+        } catch (RuntimeException e) {
+            sendMessage(exchange, 500, "500 Internal Server Error - " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void writeNode(JsonWriter writer, String field, Integer id) throws IOException {
+        switch (field) {
+            case "projects":
+                FakeProject project = projects.get(id);
+                if (project != null) {
+                    FakeGroup namespace = groups.get(project.namespaceId);
+                    String fullPath = (namespace != null ? namespace.path : "deleted") + "/" + project.path;
+                    writer.beginObject()
+                            .name("id").value("gid://gitlab/Project/" + project.id)
+                            .name("name").value(project.name)
+                            .name("path").value(project.path)
+                            .name("fullPath").value(fullPath)
+                            .name("sshUrlToRepo").value("git@localhost:" + fullPath + ".git")
+                            .name("namespace").beginObject().name("id").value("gid://gitlab/Group/" + project.namespaceId).endObject()
+                            .endObject();
+                }
+                break;
+            case "groups":
+                FakeGroup group = groups.get(id);
+                if (group != null) {
+                    writer.beginObject()
+                            .name("id").value("gid://gitlab/Group/" + group.id)
+                            .name("name").value(group.name)
+                            .name("path").value(group.path)
+                            .name("fullPath").value(group.path)
+                            .endObject();
+                }
+                break;
+            case "users":
+                FakeUser user = users.get(id);
+                if (user != null) {
+                    writer.beginObject()
+                            .name("id").value("gid://gitlab/User/" + user.id)
+                            .name("username").value(user.username)
+                            .name("name").value(user.name)
+                            .endObject();
+                }
+                break;
+            default:
+        }
+    }
+
+    private void handleUsers(Request request) throws IOException {
+        if (request.is("GET", 1)) {
+            List<FakeUser> list = new ArrayList<>(users.values());
+            String username = request.params.get("username");
+            if (username != null) {
+                list.removeIf(user -> !user.username.equals(username));
+            }
+            sendPage(request, sort(request, list), (writer, user) -> writeUser(writer, user, null));
+        } else if (request.is("POST", 1)) {
+            Integer id = createUser(request.params.get("username"), request.params.get("name"), request.params.get("email"));
+            if (id == null) {
+                sendMessage(request.exchange, 409, "Username has already been taken");
+                return;
+            }
+            send(request.exchange, 201, writer -> writeUser(writer, users.get(id), null));
+        } else if (request.is("GET", 2)) {
+            FakeUser user = users.get(request.getId(1));
+            if (user == null) {
+                sendMessage(request.exchange, 404, "404 User Not Found");
+                return;
+            }
+            send(request.exchange, 200, writer -> writeUser(writer, user, null));
+        } else if (request.is("DELETE", 2)) {
+            Integer id = request.getId(1);
+            if (users.remove(id) == null) {
+                sendMessage(request.exchange, 404, "404 User Not Found");
+                return;
+            }
+            groups.values().forEach(group -> group.members.remove(id));
+            sendEmpty(request.exchange, 204);
+        } else {
+            sendMessage(request.exchange, 404, "404 Not Found");
+        }
+    }
+
+    private void handleGroups(Request request) throws IOException {
+        if (request.is("GET", 1)) {
+            List<FakeGroup> list = new ArrayList<>(groups.values());
+            list.sort((group1, group2) -> group1.id.compareTo(group2.id));
+            sendPage(request, list, this::writeGroup);
+            return;
+        }
+        if (request.is("POST", 1)) {
+            Integer id = createGroup(request.params.get("name"), request.params.get("path"));
+            if (id == null) {
+                sendMessage(request.exchange, 400, "Failed to save group {:path=>[\"has already been taken\"]}");
+                return;
+            }
+            send(request.exchange, 201, writer -> writeGroup(writer, groups.get(id)));
+            return;
+        }
+        FakeGroup group = groups.get(request.getId(1));
+        if (group == null) {
+            sendMessage(request.exchange, 404, "404 Group Not Found");
+            return;
+        }
+        if (request.is("GET", 2)) {
+            send(request.exchange, 200, writer -> writeGroup(writer, group));
+        } else if (request.is("PUT", 2)) {
+            if (request.params.containsKey("name")) {
+                group.name = request.params.get("name");
+            }
+            group.touch();
+            send(request.exchange, 200, writer -> writeGroup(writer, group));
+        } else if (request.is("DELETE", 2)) {
+            groups.remove(group.id);
+            projects.values().removeIf(project -> project.namespaceId.equals(group.id));
+            sendMessage(request.exchange, 202, "202 Accepted");
+        } else if (request.is("GET", 3) && "members".equals(request.path[2])) {
+            List<Integer> userIds = new ArrayList<>(group.members.keySet());
+            sendPage(request, userIds, (writer, userId) -> writeUser(writer, users.get(userId), group.members.get(userId)));
+        } else if (request.is("POST", 3) && "members".equals(request.path[2])) {
+            Integer userId = Integer.valueOf(request.params.get("user_id"));
+            if (group.members.containsKey(userId)) {
+                sendMessage(request.exchange, 409, "Member already exists");
+                return;
+            }
+            if (!putMember(group.id, userId, Integer.parseInt(request.params.get("access_level")))) {
+                sendMessage(request.exchange, 404, "404 User Not Found");
+                return;
+            }
+            send(request.exchange, 201, writer -> writeUser(writer, users.get(userId), group.members.get(userId)));
+        } else if (request.is("PUT", 4) && "members".equals(request.path[2])) {
+            Integer userId = request.getId(3);
+            if (!group.members.containsKey(userId)) {
+                sendMessage(request.exchange, 404, "404 Member Not Found");
+                return;
+            }
+            putMember(group.id, userId, Integer.parseInt(request.params.get("access_level")));
+            send(request.exchange, 200, writer -> writeUser(writer, users.get(userId), group.members.get(userId)));
+        } else if (request.is("DELETE", 4) && "members".equals(request.path[2])) {
+            if (group.members.remove(request.getId(3)) == null) {
+                sendMessage(request.exchange, 404, "404 Member Not Found");
+                return;
+            }
+            group.touch();
+            sendEmpty(request.exchange, 204);
+        } else {
+            sendMessage(request.exchange, 404, "404 Not Found");
+        }
+    }
+
+    private void handleProjects(Request request) throws IOException {
+        if (request.is("GET", 1)) {
+            List<FakeProject> list = new ArrayList<>(projects.values());
+            sendPage(request, sort(request, list), this::writeProject);
+            return;
+        }
+        if (request.is("POST", 1)) {
+            Integer id = createProject(request.params.get("name"), request.params.get("path"), Integer.valueOf(request.params.get("namespace_id")));
+            if (id == null) {
+                sendMessage(request.exchange, 400, "Failed to save project {:path=>[\"has already been taken\"]}");
+                return;
+            }
+            send(request.exchange, 201, writer -> writeProject(writer, projects.get(id)));
+            return;
+        }
+        FakeProject project = projects.get(request.getId(1));
+        if (project == null) {
+            sendMessage(request.exchange, 404, "404 Project Not Found");
+            return;
+        }
+        if (request.is("GET", 2)) {
+            send(request.exchange, 200, writer -> writeProject(writer, project));
+        } else if (request.is("PUT", 2)) {
+            if (request.params.containsKey("name")) {
+                project.name = request.params.get("name");
+            }
+            project.touch();
+            send(request.exchange, 200, writer -> writeProject(writer, project));
+        } else if (request.is("DELETE", 2)) {
+            projects.remove(project.id);
+            sendMessage(request.exchange, 202, "202 Accepted");
+        } else if (request.path.length >= 3 && "variables".equals(request.path[2])) {
+            handleVariables(request, project);
+        } else if (request.is("GET", 4) && "repository".equals(request.path[2]) && request.path[3].startsWith("archive")) {
+            sendArchive(request.exchange, project);
+        } else if (request.is("POST", 3) && "export".equals(request.path[2])) {
+            project.exportStatus = "finished";
+            sendMessage(request.exchange, 202, "202 Accepted");
+        } else if (request.is("GET", 3) && "export".equals(request.path[2])) {
+            send(request.exchange, 200, writer -> writer.beginObject()
+                    .name("id").value(project.id)
+                    .name("name").value(project.name)
+                    .name("path").value(project.path)
+                    .name("export_status").value(project.exportStatus)
+                    .endObject());
+        } else if (request.is("GET", 4) && "export".equals(request.path[2]) && "download".equals(request.path[3])) {
+            if (!"finished".equals(project.exportStatus)) {
+                sendMessage(request.exchange, 404, "404 Not found");
+                return;
+            }
+            sendArchive(request.exchange, project);
+        } else {
+            sendMessage(request.exchange, 404, "404 Not Found");
+        }
+    }
+
+    private void handleVariables(Request request, FakeProject project) throws IOException {
+        if (request.is("GET", 3)) {
+            sendPage(request, new ArrayList<>(project.variables.values()), this::writeVariable);
+        } else if (request.is("POST", 3)) {
+            String key = request.params.get("key");
+            if (project.variables.containsKey(key)) {
+                sendMessage(request.exchange, 400, "{:key=>[\"(" + key + ") has already been taken\"]}");
+                return;
+            }
+            putVariable(project.id, key, request.params.get("value"), Boolean.parseBoolean(request.params.get("protected")));
+            send(request.exchange, 201, writer -> writeVariable(writer, project.variables.get(key)));
+        } else if (request.path.length == 4) {
+            String key = request.path[3];
+            FakeVariable variable = project.variables.get(key);
+            if (variable == null) {
+                sendMessage(request.exchange, 404, "404 Variable Not Found");
+            } else if ("GET".equals(request.method)) {
+                send(request.exchange, 200, writer -> writeVariable(writer, variable));
+            } else if ("PUT".equals(request.method)) {
+                putVariable(project.id, key,
+                        request.params.getOrDefault("value", variable.value),
+                        request.params.containsKey("protected") ? Boolean.parseBoolean(request.params.get("protected")) : variable.variableProtected);
+                send(request.exchange, 200, writer -> writeVariable(writer, project.variables.get(key)));
+            } else if ("DELETE".equals(request.method)) {
+                project.variables.remove(key);
+                sendEmpty(request.exchange, 204);
+            } else {
+                sendMessage(request.exchange, 404, "404 Not Found");
+            }
+        } else {
+            sendMessage(request.exchange, 404, "404 Not Found");
+        }
+    }
+
+    /**
+     * Send the archive of a project: archiveSize bytes derived from the project ID, with support of the "bytes=N-" ranges.
+     * The range is ignored if the If-Range validator doesn't match the ETag of the archive.
+     */
+    private void sendArchive(HttpExchange exchange, FakeProject project) throws IOException {
+        int size = archiveSize;
+        int start = 0;
+        String etag = "\"archive-" + project.id + "-" + size + "\"";
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null && !ifRange.equals(etag)) {
+            range = null;
+        }
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (start >= size) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + size);
+                sendEmpty(exchange, 416);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (size - 1) + "/" + size);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, size - start);
+        byte[] buffer = new byte[8192];
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = start; offset < size; offset += buffer.length) {
+                int length = Math.min(buffer.length, size - offset);
+                for (int i = 0; i < length; i++) {
+                    buffer[i] = getArchiveByte(project.id, offset + i);
+                }
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Returns a byte of the archive of a project.
+     *
+     * @param projectId The project ID
+     * @param offset The offset in the archive
+     * @return The byte
+     */
+    public static byte getArchiveByte(Integer projectId, long offset) {
+        return (byte) (offset * 31 + projectId);
+    }
+
+    /**
+     * Filter and sort a listing like Gitlab: by ID, or by update date with order_by=updated_at (and updated_after).
+     */
+    private <T extends FakeEntity> List<T> sort(Request request, List<T> list) throws IOException {
+        Comparator<T> comparator;
+        if ("updated_at".equals(request.params.get("order_by"))) {
+            comparator = Comparator.comparingLong(entity -> entity.updatedAt);
+        } else {
+            comparator = Comparator.comparing(entity -> entity.id);
+        }
+        if ("desc".equals(request.params.get("sort"))) {
+            comparator = comparator.reversed();
+        }
+        String updatedAfter = request.params.get("updated_after");
+        if (updatedAfter != null) {
+            long time = OffsetDateTime.parse(updatedAfter).toInstant().toEpochMilli();
+            list.removeIf(entity -> entity.updatedAt <= time);
+        }
+        list.sort(comparator);
+        return list;
+    }
+
+    private <T> void sendPage(Request request, List<T> elements, ElementWriter<T> elementWriter) throws IOException {
+        int perPage = Math.max(1, Math.min(100, Integer.parseInt(request.params.getOrDefault("per_page", "20"))));
+        int page = Math.max(1, Integer.parseInt(request.params.getOrDefault("page", "1")));
+        int total = elements.size();
+        int from = Math.min(total, (page - 1) * perPage);
+        int to = Math.min(total, from + perPage);
+        HttpExchange exchange = request.exchange;
+        exchange.getResponseHeaders().add("X-Page", Integer.toString(page));
+        exchange.getResponseHeaders().add("X-Per-Page", Integer.toString(perPage));
+        exchange.getResponseHeaders().add("X-Total", Integer.toString(total));
+        exchange.getResponseHeaders().add("X-Total-Pages", Integer.toString((total + perPage - 1) / perPage));
+        if (to < total) {
+            exchange.getResponseHeaders().add("X-Next-Page", Integer.toString(page + 1));
+            StringBuilder link = new StringBuilder(getUrl()).append(exchange.getRequestURI().getPath())
+                    .append("?page=").append(page + 1).append("&per_page=").append(perPage);
+            for (Map.Entry<String, String> param : request.params.entrySet()) {
+                if (!"page".equals(param.getKey()) && !"per_page".equals(param.getKey())) {
+                    link.append('&').append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(param.getValue(), "UTF-8"));
+                }
+            }
+            exchange.getResponseHeaders().add("Link", "<" + link + ">; rel=\"next\"");
+        }
+        send(exchange, 200, writer -> {
+            writer.beginArray();
+            for (T element : elements.subList(from, to)) {
+                if (element != null) {
+                    elementWriter.write(writer, element);
+                }
+            }
+            writer.endArray();
+        });
+    }
+
+    private void send(HttpExchange exchange, int code, JsonBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            body.write(writer);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (code == 200 && "GET".equals(exchange.getRequestMethod())) {
+            // Like Gitlab: an ETag of the body, to revalidate on each use
+            String etag = "W/\"" + Hashing.sha256().hashBytes(bytes.toByteArray()) + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Cache-Control", "max-age=0, private, must-revalidate");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                sendEmpty(exchange, 304);
+                return;
+            }
+        }
+        exchange.sendResponseHeaders(code, bytes.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            bytes.writeTo(out);
+        }
+    }
+
+    private void sendMessage(HttpExchange exchange, int code, String message) throws IOException {
+        send(exchange, code, writer -> writer.beginObject().name("message").value(message).endObject());
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+    }
+
+    private void injectLatency() {
+        int latency = maxLatency <= 0 ? 0 : ThreadLocalRandom.current().nextInt(minLatency, maxLatency + 1);
+        if (slowRate > 0 && ThreadLocalRandom.current().nextDouble() < slowRate) {
+            latency += slowLatency;
+        }
+        if (latency <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        InputStream in = exchange.getRequestBody();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.size() == 0 ? null : new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        readBody(exchange);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int index = param.indexOf('=');
+            if (index > 0) {
+                params.put(URLDecoder.decode(param.substring(0, index), "UTF-8"), URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static String formatDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private void writeProject(JsonWriter writer, FakeProject project) throws IOException {
+        FakeGroup namespace = groups.get(project.namespaceId);
+        String namespacePath = namespace != null ? namespace.path : "deleted";
+        String fullPath = namespacePath + "/" + project.path;
+        String url = getUrl() + "/" + fullPath;
+        writer.beginObject();
+        writer.name("id").value(project.id);
+        writer.name("description").value("");
+        writer.name("name").value(project.name);
+        writer.name("name_with_namespace").value((namespace != null ? namespace.name : "") + " / " + project.name);
+        writer.name("path").value(project.path);
+        writer.name("path_with_namespace").value(fullPath);
+        writer.name("created_at").value(formatDate(project.createdAt));
+        writer.name("updated_at").value(formatDate(project.updatedAt));
+        writer.name("default_branch").value("master");
+        writer.name("tag_list").beginArray().endArray();
+        writer.name("ssh_url_to_repo").value("git@localhost:" + fullPath + ".git");
+        writer.name("http_url_to_repo").value(url + ".git");
+        writer.name("web_url").value(url);
+        writer.name("readme_url").value(url + "/blob/master/README.md");
+        writer.name("avatar_url").nullValue();
+        writer.name("star_count").value(0);
+        writer.name("forks_count").value(0);
+        writer.name("last_activity_at").value(formatDate(project.updatedAt));
+        writer.name("namespace").beginObject()
+                .name("id").value(project.namespaceId)
+                .name("name").value(namespace != null ? namespace.name : null)
+                .name("path").value(namespacePath)
+                .name("kind").value("group")
+                .name("full_path").value(namespacePath)
+                .name("parent_id").nullValue()
+                .endObject();
+        writer.name("_links").beginObject()
+                .name("self").value(getUrl() + "/api/v4/projects/" + project.id)
+                .name("issues").value(getUrl() + "/api/v4/projects/" + project.id + "/issues")
+                .name("merge_requests").value(getUrl() + "/api/v4/projects/" + project.id + "/merge_requests")
+                .name("repo_branches").value(getUrl() + "/api/v4/projects/" + project.id + "/repository/branches")
+                .name("members").value(getUrl() + "/api/v4/projects/" + project.id + "/members")
+                .endObject();
+        writer.name("archived").value(false);
+        writer.name("visibility").value("private");
+        writer.name("issues_enabled").value(true);
+        writer.name("merge_requests_enabled").value(true);
+        writer.name("wiki_enabled").value(true);
+        writer.name("jobs_enabled").value(true);
+        writer.name("snippets_enabled").value(true);
+        writer.name("shared_runners_enabled").value(true);
+        writer.name("creator_id").value(1);
+        writer.name("open_issues_count").value(0);
+        writer.name("shared_with_groups").beginArray().endArray();
+        writer.name("merge_method").value("merge");
+        writer.name("permissions").beginObject()
+                .name("project_access").nullValue()
+                .name("group_access").beginObject()
+                .name("access_level").value(50)
+                .name("notification_level").value(3)
+                .endObject()
+                .endObject();
+        writer.endObject();
+    }
+
+    private void writeGroup(JsonWriter writer, FakeGroup group) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(group.id);
+        writer.name("name").value(group.name);
+        writer.name("path").value(group.path);
+        writer.name("description").value("");
+        writer.name("visibility").value("private");
+        writer.name("lfs_enabled").value(true);
+        writer.name("avatar_url").nullValue();
+        writer.name("web_url").value(getUrl() + "/groups/" + group.path);
+        writer.name("request_access_enabled").value(false);
+        writer.name("full_name").value(group.name);
+        writer.name("full_path").value(group.path);
+        writer.name("parent_id").nullValue();
+        writer.name("created_at").value(formatDate(group.createdAt));
+        writer.name("updated_at").value(formatDate(group.updatedAt));
+        writer.endObject();
+    }
+
+    private void writeUser(JsonWriter writer, FakeUser user, Integer accessLevel) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(user.id);
+        writer.name("username").value(user.username);
+        writer.name("name").value(user.name);
+        writer.name("state").value("active");
+        writer.name("avatar_url").value("https://www.gravatar.com/avatar/c2525a7f58ae3776070e44c106c48e15?s=80&d=identicon");
+        writer.name("web_url").value(getUrl() + "/" + user.username);
+        writer.name("created_at").value(formatDate(user.createdAt));
+        if (accessLevel != null) {
+            writer.name("access_level").value(accessLevel);
+            writer.name("expires_at").nullValue();
+        } else {
+            writer.name("updated_at").value(formatDate(user.updatedAt));
+            writer.name("email").value(user.email);
+            writer.name("is_admin").value(false);
+            writer.name("external").value(true);
+            writer.name("projects_limit").value(0);
+            writer.name("can_create_group").value(false);
+            writer.name("two_factor_enabled").value(false);
+        }
+        writer.endObject();
+    }
+
+    private void writeVariable(JsonWriter writer, FakeVariable variable) throws IOException {
+        writer.beginObject();
+        writer.name("variable_type").value("env_var");
+        writer.name("key").value(variable.key);
+        writer.name("value").value(variable.value);
+        writer.name("protected").value(variable.variableProtected);
+        writer.name("masked").value(false);
+        writer.name("environment_scope").value("*");
+        writer.endObject();
+    }
+
+    private static class Request {
+        final HttpExchange exchange;
+
+        final String method;
+
+        final String[] path;
+
+        final Map<String, String> params;
+
+        Request(HttpExchange exchange, String method, String[] path, Map<String, String> params) {
+            this.exchange = exchange;
+            this.method = method;
+            this.path = path;
+            this.params = params;
+        }
+
+        boolean is(String method, int length) {
+            return this.method.equals(method) && path.length == length;
+        }
+
+        Integer getId(int index) {
+            return Integer.valueOf(path[index]);
+        }
+    }
+
+    private static class FakeEntity {
+        Integer id;
+
+        final long createdAt = System.currentTimeMillis();
+
+        volatile long updatedAt = createdAt;
+
+        void touch() {
+            updatedAt = System.currentTimeMillis();
+        }
+    }
+
+    private static class FakeUser extends FakeEntity {
+        String username;
+
+        String name;
+
+        String email;
+    }
+
+    private static class FakeGroup extends FakeEntity {
+        volatile String name;
+
+        String path;
+
+        final Map<Integer, Integer> members = new ConcurrentSkipListMap<>();
+    }
+
+    private static class FakeProject extends FakeEntity {
+        volatile String name;
+
+        String path;
+
+        Integer namespaceId;
+
+        volatile String exportStatus = "none";
+
+        final Map<String, FakeVariable> variables = new ConcurrentSkipListMap<>();
+    }
+
+    private static class FakeVariable {
+        String key;
+
+        String value;
+
+        boolean variableProtected;
+    }
+
+    private interface JsonBody {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private interface ElementWriter<T> {
+        void write(JsonWriter writer, T element) throws IOException;
+    }
+}
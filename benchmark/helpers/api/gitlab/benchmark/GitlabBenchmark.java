@@ -0,0 +1,184 @@
+package helpers.api.gitlab.benchmark;
+
+import helpers.api.gitlab.GitlabClient;
+import helpers.api.gitlab.metrics.GitlabHistogram;
+import helpers.api.gitlab.stub.GitlabFakeServer;
+import okhttp3.OkHttpClient;
+import play.Play;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of the Gitlab services against the in-process fake server, without any network.
+ * Measures the single call latency, the allocations per call, the concurrent throughput,
+ * and the cost of large member and variable listings.
+ * This source tree is not part of the module classes: it is compiled and run by "play gitlab:bench",
+ * or can be run directly with the module, benchmark and Play classes in the classpath:
+ * <pre>
+ * java helpers.api.gitlab.benchmark.GitlabBenchmark [iterations] [threads] [seconds] [members] [variables]
+ * </pre>
+ *
+ * @author jtremeaux
+ */
+public class GitlabBenchmark {
+    private final int iterations;
+
+    private final int threads;
+
+    private final int seconds;
+
+    private final GitlabClient gitlabClient;
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final AtomicInteger nextName = new AtomicInteger();
+
+    private final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public GitlabBenchmark(GitlabClient gitlabClient, int iterations, int threads, int seconds) {
+        this.gitlabClient = gitlabClient;
+        this.iterations = iterations;
+        this.threads = threads;
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int members = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+        int variables = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+
+        // Without TCP_NODELAY, the small responses of the fake server are delayed by Nagle's algorithm.
+        // This JDK property applies to all the HTTP servers of the JVM, it is only set by this launcher
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        GitlabFakeServer server = new GitlabFakeServer();
+        server.start();
+        seed(server, members, variables);
+        try {
+            if (Play.configuration == null) {
+                Play.configuration = new Properties();
+            }
+            Play.configuration.setProperty("gitlab.mock", "false");
+            Play.configuration.setProperty("gitlab.url", server.getUrl());
+            Play.configuration.setProperty("gitlab.token", "benchmark");
+            Play.configuration.setProperty("gitlab.cache.enabled", "false");
+            Play.configuration.setProperty("gitlab.http.maxRequestsPerHost", Integer.toString(threads));
+            Play.configuration.setProperty("gitlab.http.maxIdleConnections", Integer.toString(threads));
+            GitlabClient gitlabClient = new GitlabClient();
+            try {
+                new GitlabBenchmark(gitlabClient, iterations, threads, seconds).run();
+            } finally {
+                // Let the JVM exit without waiting for the idle dispatcher threads
+                OkHttpClient client = gitlabClient.getClient();
+                client.dispatcher().executorService().shutdown();
+                client.connectionPool().evictAll();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Create 100 users, groups and projects, the members of the group 1 and the variables of the project 1.
+     */
+    private static void seed(GitlabFakeServer server, int members, int variables) {
+        for (int i = 1; i <= Math.max(100, members); i++) {
+            server.createUser("user" + i, "User " + i, "user" + i + "@example.com");
+        }
+        for (int i = 1; i <= 100; i++) {
+            server.createGroup("Group " + i, "group" + i);
+            server.createProject("Project " + i, "project" + i, i);
+        }
+        for (int i = 1; i <= members; i++) {
+            server.putMember(1, i, 30);
+        }
+        for (int i = 1; i <= variables; i++) {
+            server.putVariable(1, "VARIABLE_" + i, "value" + i, false);
+        }
+    }
+
+    public void run() throws Exception {
+        System.out.println(String.format("%-32s %8s %12s %12s %12s %14s", "Benchmark", "Cnt", "avg (us)", "p50 (us)", "p99 (us)", "alloc (B/op)"));
+        latency("project.get", iterations, () -> gitlabClient.getProjectService().getProjectById(nextId()));
+        latency("group.get", iterations, () -> gitlabClient.getGroupService().getGroupById(nextId()));
+        latency("user.get", iterations, () -> gitlabClient.getUserService().getUserById(nextId()));
+        latency("project.create", iterations, () -> gitlabClient.getProjectService().createProject("Project", nextName("bench-project-"), 1));
+        latency("project.variables.create", iterations, () -> gitlabClient.getProjectService().createVariable(2, nextName("BENCH_KEY_"), "value", false));
+        latency("group.members.list (large)", Math.max(1, iterations / 100), () -> gitlabClient.getGroupService().getGroupMember(1));
+        latency("project.variables.list (large)", Math.max(1, iterations / 100), () -> gitlabClient.getProjectService().getVariables(1));
+        System.out.println();
+        System.out.println(String.format("%-32s %8s %12s %12s %12s", "Benchmark", "Threads", "ops/s", "p50 (us)", "p99 (us)"));
+        throughput("project.get", () -> gitlabClient.getProjectService().getProjectById(nextId()));
+        throughput("project.create", () -> gitlabClient.getProjectService().createProject("Project", nextName("bench-project-"), 1));
+    }
+
+    /**
+     * Measure the latency and allocations of an operation called sequentially.
+     * Only the allocations of the calling thread are counted (prefetched pages are allocated on the dispatcher threads).
+     *
+     * @param name The benchmark name
+     * @param count Number of measured calls
+     * @param operation The operation
+     */
+    private void latency(String name, int count, Runnable operation) {
+        for (int i = 0; i < Math.max(10, count / 5); i++) {
+            operation.run();
+        }
+        GitlabHistogram histogram = new GitlabHistogram();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            histogram.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.println(String.format("%-32s %8d %12d %12d %12d %14d",
+                name, count, histogram.getMean(), histogram.getPercentile(50), histogram.getPercentile(99), allocated / count));
+    }
+
+    /**
+     * Measure the throughput of an operation called concurrently.
+     *
+     * @param name The benchmark name
+     * @param operation The operation
+     */
+    private void throughput(String name, Runnable operation) throws Exception {
+        GitlabHistogram histogram = new GitlabHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    operation.run();
+                    histogram.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        System.out.println(String.format("%-32s %8d %12d %12d %12d",
+                name, threads, histogram.getCount() / seconds, histogram.getPercentile(50), histogram.getPercentile(99)));
+    }
+
+    private int nextId() {
+        return nextId.incrementAndGet() % 100 + 1;
+    }
+
+    private String nextName(String prefix) {
+        return prefix + nextName.incrementAndGet();
+    }
+}
@@ -1,10 +1,13 @@
 # Here you can create play commands that are specific to the module, and extend existing commands
 
+import os
+import subprocess
+
 MODULE = 'gitlab'
 
 # Commands that are specific to your module
 
-COMMANDS = ['gitlab:hello']
+COMMANDS = ['gitlab:hello', 'gitlab:bench']
 
 def execute(**kargs):
     command = kargs.get("command")
@@ -15,6 +18,32 @@ def execute(**kargs):
     if command == "gitlab:hello":
         print "~ Hello"
 
+    if command == "gitlab:bench":
+        bench(app, args)
+
+
+# Compile the module sources and the benchmark (not part of the module classes) against the application classpath,
+# and run the benchmark against the fake server
+def bench(app, args):
+    module_dir = os.path.dirname(os.path.realpath(__file__))
+    classes_dir = os.path.join(app.path, 'tmp', 'gitlab-bench')
+    if not os.path.exists(classes_dir):
+        os.makedirs(classes_dir)
+    sources = []
+    for source_dir in ['app', 'benchmark']:
+        for root, dirs, files in os.walk(os.path.join(module_dir, source_dir)):
+            for name in files:
+                if name.endswith('.java'):
+                    sources.append(os.path.join(root, name))
+    classpath = os.pathsep.join(app.getClasspath() + [classes_dir])
+    java_home = os.environ.get('JAVA_HOME')
+    javac = os.path.join(java_home, 'bin', 'javac') if java_home else 'javac'
+    java = os.path.join(java_home, 'bin', 'java') if java_home else 'java'
+    print "~ Compiling the gitlab module..."
+    subprocess.check_call([javac, '-nowarn', '-encoding', 'UTF-8', '-d', classes_dir, '-cp', classpath] + sources)
+    print "~ Running the benchmark (arguments: [iterations] [threads] [seconds] [members] [variables])..."
+    subprocess.call([java, '-cp', classpath, 'helpers.api.gitlab.benchmark.GitlabBenchmark'] + args)
+
 
 # This will be executed before any command (new, run...)
 def before(**kargs):